@@ -20,6 +20,7 @@ import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.nio.file.StandardCopyOption
+import java.util.Properties
 import org.slf4j.LoggerFactory
 
 @Suppress("UNUSED", "NAME_SHADOWING")
@@ -81,6 +82,12 @@ class JniLibLoader {
   companion object {
     private val log = LoggerFactory.getLogger("io.github.workoss.jni.JniLibLoader")
 
+    /** 平台 jar 中的索引目录，每个平台一个 `<os>-<arch>.properties`，内容为 `<libName>=<path>` */
+    const val NATIVE_INDEX_DIR = "META-INF/rust-maven/native"
+
+    /** 索引中声明依赖的键后缀，`<libName>.deps=<libName>,<libName>`，由 jni 模块的加载器读取 */
+    const val DEPENDENCIES_SUFFIX = ".deps"
+
     @JvmStatic
     val instance: JniLibLoader by
         lazy(
@@ -136,6 +143,15 @@ class JniLibLoader {
         prefix: String?,
         libName: String,
         withPlatformDir: Boolean = false,
+    ): String {
+      return getJniLibPath(prefix, "${OS.os}-${OS.arch}", libName, withPlatformDir)
+    }
+
+    private fun getJniLibPath(
+        prefix: String?,
+        platform: String,
+        libName: String,
+        withPlatformDir: Boolean,
     ): String {
       val prefix = if (prefix != null) "$prefix/" else ""
       val libPrefix = if (OS.isWindows) "" else "lib"
@@ -149,9 +165,27 @@ class JniLibLoader {
           }
       val libName = libName.replace("-", "_")
       if (withPlatformDir) {
-        return "$prefix${OS.os}-${OS.arch}/$libPrefix$libName$libSuffix"
+        return "$prefix$platform/$libPrefix$libName$libSuffix"
+      }
+      return "$prefix$libPrefix$libName-$platform$libSuffix"
+    }
+
+    /** 从索引 `[prefix/]META-INF/rust-maven/native/<platform>.properties` 查找动态链接库路径 */
+    private fun getIndexedLibPath(
+        classLoader: ClassLoader,
+        prefix: String?,
+        platform: String,
+        libName: String,
+    ): String? {
+      val prefix = if (prefix != null) "$prefix/" else ""
+      classLoader.getResourceAsStream("$prefix$NATIVE_INDEX_DIR/$platform.properties").use {
+        if (it == null) {
+          return null
+        }
+        val index = Properties()
+        index.load(it)
+        return index.getProperty(libName.replace("-", "_"))?.let { path -> "$prefix$path" }
       }
-      return "$prefix$libPrefix$libName-${OS.os}-${OS.arch}$libSuffix"
     }
 
     private fun loadSystemLibrary(libName: String): Result<Unit> = runCatching {
@@ -166,7 +200,21 @@ class JniLibLoader {
         withPlatformDir: Boolean = false,
     ): Result<Unit> = runCatching {
       val classLoader = classLoader ?: JniLibLoader::class.java.classLoader
-      val fullLibraryPath = getJniLibPath(prefix, libName, withPlatformDir)
+      val platform = "${OS.os}-${OS.arch}"
+      // Platform jars carry an index of their libraries, musl builds are preferred on musl.
+      var fullLibraryPath =
+          (if (OS.isMusl) getIndexedLibPath(classLoader, prefix, "$platform-musl", libName)
+          else null) ?: getIndexedLibPath(classLoader, prefix, platform, libName)
+      if (fullLibraryPath == null) {
+        fullLibraryPath = getJniLibPath(prefix, libName, withPlatformDir)
+        // musl builds are packaged next to the glibc ones, prefer them when running on musl.
+        if (OS.isMusl) {
+          val muslLibraryPath = getJniLibPath(prefix, "$platform-musl", libName, withPlatformDir)
+          if (classLoader.getResource(muslLibraryPath) != null) {
+            fullLibraryPath = muslLibraryPath
+          }
+        }
+      }
 
       classLoader.getResourceAsStream(fullLibraryPath).use {
         if (it == null) {
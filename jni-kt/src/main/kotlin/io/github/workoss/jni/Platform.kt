@@ -0,0 +1,294 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.jni
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.util.Collections
+import java.util.Locale
+import java.util.regex.Pattern
+
+/**
+ * Immutable description of an operating system and architecture, in the `os.detected.*` naming of
+ * the os-maven-plugin.
+ *
+ * Only the name, architecture and classifier are computed up front, by table lookups. The version,
+ * the Linux release read from `/etc/os-release` and the musl check are computed on first use, and
+ * system properties are only written by [exportSystemProperties], or at startup when
+ * [EXPORT_PROPERTY] is `true`.
+ */
+class Platform private constructor(val os: String, val arch: String, osVersion: String?) {
+
+  /** `$os-$arch` */
+  val classifier: String = "$os-$arch"
+
+  val isWindows: Boolean
+    get() = os == "windows"
+
+  val isLinux: Boolean
+    get() = os == LINUX
+
+  val isOSX: Boolean
+    get() = os == "osx"
+
+  val is32bit: Boolean
+    get() = arch == "x86_32"
+
+  val is64bit: Boolean
+    get() = arch == "x86_64"
+
+  private val versionParts: List<String?> by lazy {
+    val matcher = osVersion?.let { VERSION_REGEX.matcher(it) }
+    if (matcher != null && matcher.matches()) {
+      listOf(matcher.group(1), matcher.group(2), matcher.group(3))
+    } else {
+      listOf(null, null, null)
+    }
+  }
+
+  /** `major.minor` of `os.version`, or `null` if it cannot be parsed. */
+  val version: String?
+    get() = versionParts[0]
+
+  val versionMajor: String?
+    get() = versionParts[1]
+
+  val versionMinor: String?
+    get() = versionParts[2]
+
+  private val linuxRelease: LinuxRelease? by lazy { if (isLinux) readLinuxRelease() else null }
+
+  /** Linux distribution id such as `ubuntu`, or `null` when not on Linux or unknown. */
+  val releaseId: String?
+    get() = linuxRelease?.id
+
+  val releaseVersion: String?
+    get() = linuxRelease?.version
+
+  /** The distribution id and its `ID_LIKE` entries, empty when not on Linux. */
+  val releaseLike: Set<String>
+    get() = linuxRelease?.like ?: emptySet()
+
+  /**
+   * Whether the C library is musl (e.g. Alpine), whose native libraries are packaged in a
+   * `$os-$arch-musl` directory.
+   */
+  val isMusl: Boolean by lazy {
+    isLinux && File("/lib").list { _, name -> name.startsWith("ld-musl-") }?.isNotEmpty() == true
+  }
+
+  /**
+   * Set the `os.detected.*` system properties the os-maven-plugin would, including the Linux
+   * release ones.
+   */
+  fun exportSystemProperties() {
+    System.setProperty(DETECTED_NAME, os)
+    System.setProperty(DETECTED_ARCH, arch)
+    System.setProperty(DETECTED_CLASSIFIER, classifier)
+    val version = version
+    if (version != null) {
+      System.setProperty(DETECTED_VERSION, version)
+      System.setProperty("$DETECTED_VERSION.major", versionMajor!!)
+      System.setProperty("$DETECTED_VERSION.minor", versionMinor!!)
+    }
+    val release = linuxRelease ?: return
+    System.setProperty(DETECTED_RELEASE, release.id)
+    release.version?.let { System.setProperty("$DETECTED_RELEASE.version", it) }
+    release.like.forEach { System.setProperty("$DETECTED_RELEASE.like.$it", "true") }
+  }
+
+  override fun toString(): String = classifier
+
+  private class LinuxRelease(val id: String, val version: String?, like: Set<String>) {
+    val like: Set<String> = Collections.unmodifiableSet(LinkedHashSet(like))
+  }
+
+  companion object {
+    /** When `true`, [OS] exports the `os.detected.*` system properties when it is initialized. */
+    const val EXPORT_PROPERTY = "io.github.workoss.jni.os.exportProperties"
+
+    private const val UNKNOWN = "unknown"
+    private const val LINUX = "linux"
+
+    private const val DETECTED_NAME = "os.detected.name"
+    private const val DETECTED_ARCH = "os.detected.arch"
+    private const val DETECTED_VERSION = "os.detected.version"
+    private const val DETECTED_CLASSIFIER = "os.detected.classifier"
+    private const val DETECTED_RELEASE = "os.detected.release"
+
+    private val OS_PREFIXES =
+        listOf(
+            "aix" to "aix",
+            "hpux" to "hpux",
+            "os400" to "os400",
+            "linux" to LINUX,
+            "macosx" to "osx",
+            "osx" to "osx",
+            "freebsd" to "freebsd",
+            "openbsd" to "openbsd",
+            "netbsd" to "netbsd",
+            "solaris" to "sunos",
+            "sunos" to "sunos",
+            "windows" to "windows",
+            "zos" to "zos",
+        )
+
+    private val ARCHES: Map<String, String> =
+        HashMap<String, String>().apply {
+          fun arch(arch: String, vararg names: String) = names.forEach { put(it, arch) }
+          arch("x86_64", "x8664", "amd64", "ia32e", "em64t", "x64")
+          arch("x86_32", "x8632", "x86", "i386", "i486", "i586", "i686", "ia32", "x32")
+          arch("itanium_64", "ia64", "ia64w", "itanium64")
+          arch("itanium_32", "ia64n")
+          arch("sparc_32", "sparc", "sparc32")
+          arch("sparc_64", "sparcv9", "sparc64")
+          arch("arm_32", "arm", "arm32")
+          arch("aarch_64", "aarch64")
+          arch("mips_32", "mips", "mips32")
+          arch("mipsel_32", "mipsel", "mips32el")
+          arch("mips_64", "mips64")
+          arch("mipsel_64", "mips64el")
+          arch("ppc_32", "ppc", "ppc32")
+          arch("ppcle_32", "ppcle", "ppc32le")
+          arch("ppc_64", "ppc64")
+          arch("ppcle_64", "ppc64le")
+          arch("s390_32", "s390")
+          arch("s390_64", "s390x")
+          arch("riscv64", "riscv64")
+          arch("loongarch_64", "loongarch64")
+        }
+
+    private val VERSION_REGEX = Pattern.compile("((\\d+)\\.(\\d+)).*")
+    private val REDHAT_MAJOR_VERSION_REGEX = Pattern.compile("(\\d+)")
+    private val LINUX_OS_RELEASE_FILES = arrayOf("/etc/os-release", "/usr/lib/os-release")
+    private const val REDHAT_RELEASE_FILE = "/etc/redhat-release"
+
+    /**
+     * The platform of this JVM. Fails on an unknown name or architecture unless the system property
+     * `failOnUnknownOS` is `false`.
+     */
+    @JvmStatic
+    val current: Platform by lazy {
+      val osName = System.getProperty("os.name")
+      val osArch = System.getProperty("os.arch")
+      val platform = of(osName, osArch, System.getProperty("os.version"))
+      if (!"false".equals(System.getProperty("failOnUnknownOS"), ignoreCase = true)) {
+        if (UNKNOWN == platform.os) error("unknown os.name: $osName")
+        if (UNKNOWN == platform.arch) error("unknown os.arch: $osArch")
+      }
+      platform
+    }
+
+    /** The platform of `os.name`, `os.arch` and `os.version`, with `unknown` for unknown parts. */
+    @JvmStatic
+    fun of(osName: String?, osArch: String?, osVersion: String?): Platform =
+        Platform(normalizeOs(osName), ARCHES[normalize(osArch)] ?: UNKNOWN, osVersion)
+
+    private fun normalizeOs(osName: String?): String {
+      val value = normalize(osName)
+      for ((prefix, os) in OS_PREFIXES) {
+        // Avoid the names such as os4000
+        if (value.startsWith(prefix) &&
+            !(prefix == "os400" && value.length > 5 && value[5].isDigit())) {
+          return os
+        }
+      }
+      return UNKNOWN
+    }
+
+    /** Lower case ASCII letters and digits of [value], dropping everything else. */
+    private fun normalize(value: String?): String {
+      if (value == null) {
+        return ""
+      }
+      val builder = StringBuilder(value.length)
+      for (c in value) {
+        when (c) {
+          in 'A'..'Z' -> builder.append(c + ('a' - 'A'))
+          in 'a'..'z',
+          in '0'..'9' -> builder.append(c)
+        }
+      }
+      return builder.toString()
+    }
+
+    private fun readLinuxRelease(): LinuxRelease? {
+      for (fileName in LINUX_OS_RELEASE_FILES) {
+        parseOsReleaseFile(fileName)?.let {
+          return it
+        }
+      }
+      // Older versions of redhat don't have /etc/os-release.
+      return parseRedhatReleaseFile()
+    }
+
+    /**
+     * Parses a file in the format of `/etc/os-release`, using its `ID`, `ID_LIKE` and
+     * `VERSION_ID` entries.
+     */
+    private fun parseOsReleaseFile(fileName: String): LinuxRelease? {
+      try {
+        var id: String? = null
+        var version: String? = null
+        val like = LinkedHashSet<String>()
+        Files.newBufferedReader(Paths.get(fileName), Charsets.UTF_8).useLines { lines ->
+          for (line in lines) {
+            when {
+              line.startsWith("ID=") -> {
+                id = releaseValue(line.substring(3))
+                like.add(id!!)
+              }
+              line.startsWith("VERSION_ID=") -> version = releaseValue(line.substring(11))
+              line.startsWith("ID_LIKE=") ->
+                  like.addAll(releaseValue(line.substring(8)).split(Regex("\\s+")))
+            }
+          }
+        }
+        return id?.let { LinuxRelease(it, version, like) }
+      } catch (_: IOException) {
+        // Don't treat failure to read /etc/os-release as an error.
+        return null
+      }
+    }
+
+    /** Parses `/etc/redhat-release`, which only identifies CentOS, Fedora and RHEL. */
+    private fun parseRedhatReleaseFile(): LinuxRelease? {
+      try {
+        val line =
+            Files.newBufferedReader(Paths.get(REDHAT_RELEASE_FILE), Charsets.UTF_8).use {
+              it.readLine()
+            } ?: return null
+        val lower = line.lowercase(Locale.US)
+        val id =
+            when {
+              lower.contains("centos") -> "centos"
+              lower.contains("fedora") -> "fedora"
+              lower.contains("red hat enterprise linux") -> "rhel"
+              else -> return null
+            }
+        val versionMatcher = REDHAT_MAJOR_VERSION_REGEX.matcher(lower)
+        val version = if (versionMatcher.find()) versionMatcher.group(1) else null
+        return LinuxRelease(id, version, linkedSetOf("rhel", "fedora", id))
+      } catch (_: IOException) {
+        return null
+      }
+    }
+
+    private fun releaseValue(value: String): String = value.trim().replace("\"", "")
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the {@code DT_NEEDED} entries of an ELF shared library.
+ *
+ * @author workoss
+ */
+final class ElfDependencies {
+
+    private static final int ELF_MAGIC = 0x7f454c46;
+    private static final int SHT_DYNAMIC = 6;
+    private static final long DT_NULL = 0;
+    private static final long DT_NEEDED = 1;
+
+    private ElfDependencies() {
+    }
+
+    /**
+     * 读取动态链接库的依赖
+     *
+     * @param file 动态链接库文件
+     * @return {@code DT_NEEDED} 中的 soname，非 ELF 文件返回空列表
+     * @throws IOException 读取失败
+     */
+    static List<String> needed(final Path file) throws IOException {
+        MappedByteBuffer elf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            elf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (elf.limit() < 52 || elf.getInt(0) != ELF_MAGIC) {
+            return Collections.emptyList();
+        }
+        boolean is64 = elf.get(4) == 2;
+        elf.order(elf.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        long sectionTable = is64 ? elf.getLong(0x28) : elf.getInt(0x20) & 0xffffffffL;
+        int sectionSize = elf.getShort(is64 ? 0x3a : 0x2e) & 0xffff;
+        int sectionCount = elf.getShort(is64 ? 0x3c : 0x30) & 0xffff;
+
+        List<String> needed = new ArrayList<>();
+        for (int i = 0; i < sectionCount; i++) {
+            int header = (int) (sectionTable + (long) i * sectionSize);
+            if (elf.getInt(header + 4) != SHT_DYNAMIC) {
+                continue;
+            }
+            long offset = is64 ? elf.getLong(header + 0x18) : elf.getInt(header + 0x10) & 0xffffffffL;
+            long size = is64 ? elf.getLong(header + 0x20) : elf.getInt(header + 0x14) & 0xffffffffL;
+            int link = elf.getInt(header + (is64 ? 0x28 : 0x18));
+            int linkHeader = (int) (sectionTable + (long) link * sectionSize);
+            long strings = is64 ? elf.getLong(linkHeader + 0x18) : elf.getInt(linkHeader + 0x10) & 0xffffffffL;
+            int entrySize = is64 ? 16 : 8;
+            for (long entry = offset; entry + entrySize <= offset + size; entry += entrySize) {
+                long tag = is64 ? elf.getLong((int) entry) : elf.getInt((int) entry);
+                if (tag == DT_NULL) {
+                    break;
+                }
+                if (tag == DT_NEEDED) {
+                    long value = is64 ? elf.getLong((int) entry + 8) : elf.getInt((int) entry + 4) & 0xffffffffL;
+                    needed.add(string(elf, (int) (strings + value)));
+                }
+            }
+        }
+        return needed;
+    }
+
+    private static String string(final MappedByteBuffer elf, final int offset) {
+        int end = offset;
+        while (end < elf.limit() && elf.get(end) != 0) {
+            end++;
+        }
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = elf.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 可在运行中替换的动态链接库
+ *
+ * <p>
+ * 每个版本通过独立的类加载器加载实现类和动态链接库，解压到各自的版本目录。调用方通过 {@link #call(Function)} 使用当前版本，
+ * {@link #swap(String, URL...)} 之后旧版本在其调用全部返回后释放。
+ *
+ * <p>
+ * 实现类声明 native 方法并实现调用方的接口，不能自行加载动态链接库，接口签名中的类型需 {@link Builder#share 共享}。
+ *
+ * <pre>{@code
+ * HotSwapLibrary<Codec> codec = HotSwapLibrary.builder(Codec.class, "com.example.NativeCodec", "codec").build();
+ * codec.swap("1.0.0", v1Jar);
+ * byte[] out = codec.call(c -> c.encode(in));
+ * codec.swap("1.1.0", v2Jar);
+ * }</pre>
+ *
+ * @param <T> 调用方使用的接口
+ * @author workoss
+ */
+public final class HotSwapLibrary<T> implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger("io.github.workoss.jni.HotSwapLibrary");
+
+    private final Class<T> api;
+    private final String implClassName;
+    private final String libName;
+    private final String prefix;
+    private final boolean withPlatformDir;
+    private final Path extractDir;
+    private final List<String> sharedPrefixes;
+
+    private final AtomicReference<Generation<T>> current = new AtomicReference<>();
+    private final AtomicLong generations = new AtomicLong();
+
+    private HotSwapLibrary(final Builder<T> builder) {
+        this.api = builder.api;
+        this.implClassName = builder.implClassName;
+        this.libName = builder.libName;
+        this.prefix = builder.prefix;
+        this.withPlatformDir = builder.withPlatformDir;
+        this.extractDir = builder.extractDir;
+        this.sharedPrefixes = new ArrayList<>(builder.sharedPrefixes);
+    }
+
+    /**
+     * 创建 builder
+     *
+     * @param api           调用方使用的接口
+     * @param implClassName 实现类，声明 native 方法
+     * @param libName       动态链接库名称
+     * @param <T>           接口类型
+     * @return builder
+     */
+    public static <T> Builder<T> builder(final Class<T> api, final String implClassName, final String libName) {
+        return new Builder<>(api, implClassName, libName);
+    }
+
+    /**
+     * 加载新版本并切换后续调用
+     *
+     * @param version 版本，用于解压目录
+     * @param urls    新版本的 jar 或目录，包含实现类和动态链接库
+     * @return 旧版本的调用全部返回并释放后完成
+     * @throws IOException 加载失败，当前版本保持不变
+     */
+    public synchronized CompletableFuture<Void> swap(final String version, final URL... urls) throws IOException {
+        long number = generations.incrementAndGet();
+        Path dir = extractDir.resolve(libName.replace("-", "_"))
+                .resolve(version.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + number);
+        IsolatedClassLoader classLoader = new IsolatedClassLoader(urls, api, sharedPrefixes);
+        Generation<T> next;
+        try {
+            String resource = JniLibLoader.resolveLibraryPath(classLoader, prefix, libName, withPlatformDir);
+            Path file = extract(classLoader, resource, dir);
+            classLoader.loadNative(file);
+            Class<?> impl = Class.forName(implClassName, true, classLoader);
+            T instance = api.cast(impl.getDeclaredConstructor().newInstance());
+            next = new Generation<>(version, classLoader, instance, dir);
+        } catch (IOException | RuntimeException | ReflectiveOperationException | LinkageError e) {
+            classLoader.close();
+            deleteQuietly(dir);
+            throw new IOException("[LIB] load " + libName + " " + version + " error:" + e.getMessage(), e);
+        }
+        Generation<T> previous = current.getAndSet(next);
+        LOG.info("[LIB] {} {} loaded from {}", libName, version, dir);
+        if (previous == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        LOG.info("[LIB] {} {} retired, draining", libName, previous.version);
+        return previous.retire();
+    }
+
+    /**
+     * 使用当前版本调用
+     *
+     * @param function 调用
+     * @param <R>      返回类型
+     * @return 返回值
+     */
+    public <R> R call(final Function<? super T, ? extends R> function) {
+        Generation<T> generation = acquire();
+        try {
+            return function.apply(generation.instance);
+        } finally {
+            generation.release();
+        }
+    }
+
+    /**
+     * 使用当前版本调用
+     *
+     * @param action 调用
+     */
+    public void run(final Consumer<? super T> action) {
+        Generation<T> generation = acquire();
+        try {
+            action.accept(generation.instance);
+        } finally {
+            generation.release();
+        }
+    }
+
+    /**
+     * 当前版本
+     *
+     * @return 当前版本，未加载时为 null
+     */
+    public String version() {
+        Generation<T> generation = current.get();
+        return generation != null ? generation.version : null;
+    }
+
+    /**
+     * 当前版本的调用全部返回后释放，之后的调用失败
+     */
+    @Override
+    public synchronized void close() {
+        Generation<T> previous = current.getAndSet(null);
+        if (previous != null) {
+            previous.retire();
+        }
+    }
+
+    private Generation<T> acquire() {
+        while (true) {
+            Generation<T> generation = current.get();
+            if (generation == null) {
+                throw new IllegalStateException(libName + " is not loaded");
+            }
+            // A generation retired between the read and enter() refuses the call, retry on its successor.
+            if (generation.enter()) {
+                return generation;
+            }
+        }
+    }
+
+    private static Path extract(final ClassLoader classLoader, final String resource, final Path dir)
+            throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(Paths.get(resource).getFileName().toString());
+        if (!StoredJarEntry.copy(classLoader, resource, file)) {
+            throw new IOException(resource + " was not found");
+        }
+        return file;
+    }
+
+    private static void deleteQuietly(final Path dir) {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                if (!path.toFile().delete()) {
+                    // Windows keeps loaded libraries locked until the classloader is collected.
+                    path.toFile().deleteOnExit();
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("[LIB] delete {} error: {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * One loaded version and the calls running on it.
+     */
+    private static final class Generation<T> {
+        private final String version;
+        private final IsolatedClassLoader classLoader;
+        private final Path dir;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+        private volatile T instance;
+        private volatile boolean retired;
+
+        Generation(final String version, final IsolatedClassLoader classLoader, final T instance, final Path dir) {
+            this.version = version;
+            this.classLoader = classLoader;
+            this.instance = instance;
+            this.dir = dir;
+        }
+
+        boolean enter() {
+            inFlight.incrementAndGet();
+            if (retired) {
+                release();
+                return false;
+            }
+            return true;
+        }
+
+        void release() {
+            if (inFlight.decrementAndGet() == 0 && retired) {
+                unload();
+            }
+        }
+
+        CompletableFuture<Void> retire() {
+            retired = true;
+            if (inFlight.get() == 0) {
+                unload();
+            }
+            return drained;
+        }
+
+        private void unload() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            // The library is unloaded when the classloader becomes unreachable.
+            instance = null;
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                LOG.warn("[LIB] close classloader of {} error: {}", version, e.getMessage());
+            }
+            deleteQuietly(dir);
+            LOG.info("[LIB] version {} released", version);
+            drained.complete(null);
+        }
+    }
+
+    /**
+     * Child-first classloader of one version. The API and shared types come from the parent so callers and the
+     * implementation agree on them.
+     */
+    private static final class IsolatedClassLoader extends URLClassLoader {
+        private static final String NATIVE_LOADER = NativeLoader.class.getName();
+
+        private final String apiName;
+        private final List<String> sharedPrefixes;
+
+        IsolatedClassLoader(final URL[] urls, final Class<?> api, final List<String> sharedPrefixes) {
+            super(urls, api.getClassLoader());
+            this.apiName = api.getName();
+            this.sharedPrefixes = sharedPrefixes;
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    if (NATIVE_LOADER.equals(name)) {
+                        loaded = defineNativeLoader();
+                    } else if (isShared(name)) {
+                        loaded = super.loadClass(name, false);
+                    } else {
+                        try {
+                            loaded = findClass(name);
+                        } catch (ClassNotFoundException e) {
+                            loaded = super.loadClass(name, false);
+                        }
+                    }
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+
+        @Override
+        public URL getResource(final String name) {
+            URL url = findResource(name);
+            return url != null ? url : super.getResource(name);
+        }
+
+        /**
+         * {@link System#load} binds the library to the classloader of its caller, so it is called from a copy of
+         * {@link NativeLoader} defined by this classloader.
+         */
+        void loadNative(final Path file) throws ReflectiveOperationException {
+            Method load = loadClass(NATIVE_LOADER).getDeclaredMethod("load", String.class);
+            load.setAccessible(true);
+            load.invoke(null, file.toString());
+        }
+
+        private boolean isShared(final String name) {
+            return name.startsWith("java.") || name.startsWith("javax.") || name.equals(apiName)
+                    || sharedPrefixes.stream().anyMatch(name::startsWith);
+        }
+
+        private Class<?> defineNativeLoader() throws ClassNotFoundException {
+            String resource = NATIVE_LOADER.replace('.', '/') + ".class";
+            try (InputStream in = HotSwapLibrary.class.getClassLoader().getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new ClassNotFoundException(NATIVE_LOADER);
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, read);
+                }
+                byte[] code = bytes.toByteArray();
+                return defineClass(NATIVE_LOADER, code, 0, code.length);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(NATIVE_LOADER, e);
+            }
+        }
+    }
+
+    private static final class NativeLoader {
+        private NativeLoader() {
+        }
+
+        private static void load(final String path) {
+            System.load(path);
+        }
+    }
+
+    /**
+     * HotSwapLibrary 构建器
+     *
+     * @param <T> 接口类型
+     */
+    public static final class Builder<T> {
+        private final Class<T> api;
+        private final String implClassName;
+        private final String libName;
+        private final List<String> sharedPrefixes = new ArrayList<>();
+        private String prefix;
+        private boolean withPlatformDir;
+        private Path extractDir = Paths.get(OS.tmpDir, "rust-maven-hotswap");
+
+        private Builder(final Class<T> api, final String implClassName, final String libName) {
+            this.api = api;
+            this.implClassName = implClassName;
+            this.libName = libName;
+        }
+
+        /**
+         * 设置前缀文件目录
+         *
+         * @param prefix 前缀文件目录
+         * @return builder
+         */
+        public Builder<T> prefix(final String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * 设置是否平台目录
+         *
+         * @param withPlatformDir 是否平台目录
+         * @return builder
+         */
+        public Builder<T> withPlatformDir(final boolean withPlatformDir) {
+            this.withPlatformDir = withPlatformDir;
+            return this;
+        }
+
+        /**
+         * 设置解压根目录
+         *
+         * @param extractDir 解压根目录，每个版本一个子目录
+         * @return builder
+         */
+        public Builder<T> extractDir(final Path extractDir) {
+            this.extractDir = extractDir;
+            return this;
+        }
+
+        /**
+         * 设置始终由父类加载器加载的类名前缀
+         *
+         * @param prefixes 类名前缀，如接口签名中的类型
+         * @return builder
+         */
+        public Builder<T> share(final String... prefixes) {
+            sharedPrefixes.addAll(Arrays.asList(prefixes));
+            return this;
+        }
+
+        /**
+         * 创建 HotSwapLibrary
+         *
+         * @return HotSwapLibrary
+         */
+        public HotSwapLibrary<T> build() {
+            return new HotSwapLibrary<>(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+/**
+ * Commits drained native traces as JFR events. Only loaded when the JVM has JFR.
+ *
+ * <p>
+ * JFR takes an event's start time and duration from {@code begin()} and {@code end()} on the committing thread, and
+ * offers no way to set them, so every {@code RustSpan} is recorded at drain time with a zero duration. The native
+ * timing is only available in the {@code nativeStart} and {@code nativeDuration} fields.
+ *
+ * @author workoss
+ */
+final class JfrTracingSink implements RustTracing.Sink {
+
+    /**
+     * Offset from the monotonic clock of the records to epoch nanoseconds.
+     */
+    private final long epochOffset = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    @Override
+    public void span(final int nameId, final long spanId, final long thread, final long start, final long duration) {
+        RustSpan event = new RustSpan();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.name = RustTracing.name(nameId);
+        event.spanId = spanId;
+        event.nativeThread = thread;
+        event.nativeStart = (start + epochOffset) / 1_000_000L;
+        event.nativeStartNanos = start;
+        event.nativeDuration = duration;
+        event.commit();
+    }
+
+    @Override
+    public void counter(final int nameId, final long value, final long thread, final long time) {
+        RustCounter event = new RustCounter();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.name = RustTracing.name(nameId);
+        event.value = value;
+        event.nativeThread = thread;
+        event.nativeTime = (time + epochOffset) / 1_000_000L;
+        event.nativeTimeNanos = time;
+        event.commit();
+    }
+
+    @Name("io.github.workoss.jni.RustSpan")
+    @Label("Rust Span")
+    @Category("Rust")
+    @StackTrace(false)
+    @Description("A span of native code, committed when drained from the tracing ring buffer. The event time is the "
+            + "drain time, see Native Start and Native Duration for when the span ran")
+    static final class RustSpan extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Span Id")
+        long spanId;
+
+        @Label("Native Thread")
+        long nativeThread;
+
+        @Label("Native Start")
+        @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long nativeStart;
+
+        @Label("Native Start Nanos")
+        @Description("Monotonic clock, comparable to System.nanoTime()")
+        long nativeStartNanos;
+
+        @Label("Native Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nativeDuration;
+    }
+
+    @Name("io.github.workoss.jni.RustCounter")
+    @Label("Rust Counter")
+    @Category("Rust")
+    @StackTrace(false)
+    @Description("A counter sample of native code, committed when drained from the tracing ring buffer")
+    static final class RustCounter extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Value")
+        long value;
+
+        @Label("Native Thread")
+        long nativeThread;
+
+        @Label("Native Time")
+        @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long nativeTime;
+
+        @Label("Native Time Nanos")
+        @Description("Monotonic clock, comparable to System.nanoTime()")
+        long nativeTimeNanos;
+    }
+}
@@ -22,10 +22,22 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 /**
@@ -38,6 +50,21 @@ public final class JniLibLoader {
 
     private static final Logger LOG = LoggerFactory.getLogger("io.github.workoss.jni.JniLibLoader");
 
+    /**
+     * 平台 jar 中的索引目录，每个平台一个 {@code <os>-<arch>.properties}，内容为 {@code <libName>=<path>}
+     */
+    public static final String NATIVE_INDEX_DIR = "META-INF/rust-maven/native";
+
+    /**
+     * 索引中声明依赖的键后缀，{@code <libName>.deps=<libName>,<libName>}
+     */
+    public static final String DEPENDENCIES_SUFFIX = ".deps";
+
+    /**
+     * 每个类加载器已经由 {@link #loadLibraryWithDependencies} 加载的资源路径
+     */
+    private static final Map<ClassLoader, Set<String>> LOADED_RESOURCES = new WeakHashMap<>();
+
     private JniLibLoader() {
     }
 
@@ -92,6 +119,115 @@ public final class JniLibLoader {
         }
     }
 
+    public synchronized boolean loadLibraryWithDependencies(final String libName, final boolean withPlatformDir)
+            throws IOException {
+        return loadLibraryWithDependencies(null, OS.tmpDir, null, libName, withPlatformDir);
+    }
+
+    public synchronized boolean loadLibraryWithDependencies(final ClassLoader classLoader, final String libName,
+                                                            final boolean withPlatformDir) throws IOException {
+        return loadLibraryWithDependencies(classLoader, OS.tmpDir, null, libName, withPlatformDir);
+    }
+
+    /**
+     * 加载动态链接库及其打包在 jar 中的依赖库
+     *
+     * <p>
+     * 依赖取自平台索引的 {@code <libName>.deps}，否则取同目录下打包的 ELF {@code DT_NEEDED} 条目。全部并行解压后先加载依赖。
+     * 动态链接器按已加载库的 {@code SONAME} 匹配 {@code DT_NEEDED}，因此打包的依赖库需设置 SONAME。
+     *
+     * @param classLoader     类加载器，动态链接库所在的库classloader
+     * @param tmpDir          系统临时目录
+     * @param prefix          前缀文件目录
+     * @param libName         动态链接库名称
+     * @param withPlatformDir 是否平台目录
+     * @return 是否加载成功
+     * @throws IOException 加载失败异常或依赖成环
+     */
+    public synchronized boolean loadLibraryWithDependencies(final ClassLoader classLoader, final String tmpDir,
+                                                            final String prefix, final String libName,
+                                                            final boolean withPlatformDir) throws IOException {
+        ClassLoader actualClassLoader = classLoader != null ? classLoader : JniLibLoader.class.getClassLoader();
+        String root = resolveLibraryPath(actualClassLoader, prefix, libName, withPlatformDir);
+        Map<String, String> names = new HashMap<>();
+        Map<String, List<String>> graph = new LinkedHashMap<>();
+        Map<String, Path> files = new HashMap<>();
+        names.put(root, libName);
+
+        List<String> level = Collections.singletonList(root);
+        ExecutorService executor = null;
+        try {
+            while (!level.isEmpty()) {
+                if (executor == null && level.size() > 1) {
+                    executor = newExtractor();
+                }
+                Map<String, Future<Path>> extractions = new LinkedHashMap<>();
+                for (String resource : level) {
+                    if (isLoaded(actualClassLoader, root, resource)) {
+                        // Loaded together with its own dependencies already.
+                        graph.put(resource, Collections.emptyList());
+                    } else if (executor != null) {
+                        extractions.put(resource, executor.submit(() -> extract(actualClassLoader, tmpDir, resource)));
+                    } else {
+                        files.put(resource, extract(actualClassLoader, tmpDir, resource));
+                    }
+                }
+                for (Map.Entry<String, Future<Path>> extraction : extractions.entrySet()) {
+                    files.put(extraction.getKey(), await(extraction.getValue()));
+                }
+                List<String> next = new ArrayList<>();
+                for (String resource : level) {
+                    if (graph.containsKey(resource)) {
+                        continue;
+                    }
+                    List<String> dependencies = getDependencies(actualClassLoader, prefix, names, resource,
+                            files.get(resource), withPlatformDir);
+                    graph.put(resource, dependencies);
+                    for (String dependency : dependencies) {
+                        if (!graph.containsKey(dependency) && !level.contains(dependency)
+                                && !next.contains(dependency)) {
+                            next.add(dependency);
+                        }
+                    }
+                }
+                level = next;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        for (String resource : topologicalOrder(root, graph)) {
+            if (isLoaded(actualClassLoader, root, resource)) {
+                continue;
+            }
+            try {
+                System.load(files.get(resource).toString());
+            } catch (UnsatisfiedLinkError e) {
+                throw new IOException("[LIB] load " + resource + " error:" + e.getMessage(), e);
+            }
+            LOADED_RESOURCES.computeIfAbsent(actualClassLoader, key -> new HashSet<>()).add(resource);
+            LOG.info("[LIB] load jar lib {} success", resource);
+        }
+        return true;
+    }
+
+    /**
+     * 资源是否已加载，依赖由任一类加载器加载即可，根动态链接库需由当前类加载器加载
+     */
+    private static boolean isLoaded(final ClassLoader classLoader, final String root, final String resource) {
+        if (resource.equals(root)) {
+            return LOADED_RESOURCES.getOrDefault(classLoader, Collections.emptySet()).contains(resource);
+        }
+        for (Set<String> resources : LOADED_RESOURCES.values()) {
+            if (resources.contains(resource)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 获取JniLoader 实例
      *
@@ -116,29 +252,193 @@ public final class JniLibLoader {
     private static boolean loadLibraryFromJar(final ClassLoader classLoader, final String tmpDir, final String prefix,
                                               final String libName, final boolean withPlatformDir) throws IOException {
         ClassLoader actualClassLoader = classLoader != null ? classLoader : JniLibLoader.class.getClassLoader();
-        String fullLibraryPath = getJniLibPath(prefix, libName, withPlatformDir);
+        String fullLibraryPath = resolveLibraryPath(actualClassLoader, prefix, libName, withPlatformDir);
+        System.load(extract(actualClassLoader, tmpDir, fullLibraryPath).toString());
+        return true;
+    }
+
+    /**
+     * 将 jar 中的动态链接库解压到 {@code tmpDir + resource}，已预解压的直接使用
+     *
+     * @return 解压后的文件
+     */
+    private static Path extract(final ClassLoader classLoader, final String tmpDir, final String fullLibraryPath)
+            throws IOException {
+        Path preExtracted = PreExtractedLibraries.lookup(classLoader, fullLibraryPath);
+        if (preExtracted != null) {
+            return preExtracted;
+        }
+        Path tmpLibFullPath = Paths.get(tmpDir + fullLibraryPath).toAbsolutePath();
+
+        File tmpLibFile = tmpLibFullPath.toFile();
+        if (tmpLibFile.exists()) {
+            LOG.info("{} was deleted", tmpLibFullPath);
+            tmpLibFile.delete();
+        }
 
-        try (InputStream libInputStream = actualClassLoader.getResourceAsStream(fullLibraryPath)) {
-            if (libInputStream == null) {
-                throw new RuntimeException(libName + " was not found inside JAR.");
+        File parentFile = tmpLibFile.getParentFile();
+        if (!parentFile.exists()) {
+            parentFile.mkdirs();
+        }
+
+        // STORED entries of local jars are copied by the kernel, anything else is streamed.
+        if (!StoredJarEntry.copy(classLoader, fullLibraryPath, tmpLibFullPath)) {
+            throw new RuntimeException(fullLibraryPath + " was not found inside JAR.");
+        }
+        return tmpLibFullPath;
+    }
+
+    private static ExecutorService newExtractor() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jni-lib-extract");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Path await(final Future<Path> extraction) throws IOException {
+        try {
+            return extraction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("[LIB] interrupted while extracting", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
-            Path tmpLibFullPath = Paths.get(tmpDir + fullLibraryPath).toAbsolutePath();
+            throw new IOException("[LIB] extract error:" + cause.getMessage(), cause);
+        }
+    }
 
-            File tmpLibFile = tmpLibFullPath.toFile();
-            if (tmpLibFile.exists()) {
-                LOG.info("{} was deleted", tmpLibFullPath);
-                tmpLibFile.delete();
+    /**
+     * 动态链接库打包在 jar 中的依赖，声明在索引中的优先，否则读取 ELF {@code DT_NEEDED}
+     *
+     * @param names 资源路径到动态链接库名称的映射，新发现的依赖会加入其中
+     * @return 依赖的资源路径
+     */
+    private static List<String> getDependencies(final ClassLoader classLoader, final String prefix,
+                                                final Map<String, String> names, final String resource,
+                                                final Path file, final boolean withPlatformDir)
+            throws IOException {
+        List<String> dependencies = new ArrayList<>();
+        String declared = getIndexedDependencies(classLoader, prefix, names.get(resource));
+        if (declared != null) {
+            for (String name : declared.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty()) {
+                    String dependency = resolveLibraryPath(classLoader, prefix, name, withPlatformDir);
+                    names.putIfAbsent(dependency, name);
+                    dependencies.add(dependency);
+                }
             }
+            return dependencies;
+        }
+        String dir = resource.substring(0, resource.lastIndexOf('/') + 1);
+        for (String needed : ElfDependencies.needed(file)) {
+            String dependency = dir + needed;
+            // Only the bundled ones, system libraries are left to the dynamic linker.
+            if (!dependency.equals(resource) && classLoader.getResource(dependency) != null) {
+                names.putIfAbsent(dependency, getLibName(needed));
+                dependencies.add(dependency);
+            }
+        }
+        return dependencies;
+    }
+
+    private static String getIndexedDependencies(final ClassLoader classLoader, final String prefix,
+                                                 final String libName) throws IOException {
+        String key = libName.replace("-", "_") + DEPENDENCIES_SUFFIX;
+        String platform = OS.os + "-" + OS.arch;
+        String dependencies = OS.isMusl() ? getIndexEntry(classLoader, prefix, platform + "-musl", key) : null;
+        return dependencies != null ? dependencies : getIndexEntry(classLoader, prefix, platform, key);
+    }
+
+    /**
+     * 依赖在前的加载顺序
+     *
+     * @throws IOException 依赖成环
+     */
+    private static List<String> topologicalOrder(final String root, final Map<String, List<String>> graph)
+            throws IOException {
+        List<String> order = new ArrayList<>();
+        visit(root, graph, new HashSet<>(), new HashSet<>(), order);
+        return order;
+    }
+
+    private static void visit(final String resource, final Map<String, List<String>> graph,
+                              final Set<String> visiting, final Set<String> visited, final List<String> order)
+            throws IOException {
+        if (visited.contains(resource)) {
+            return;
+        }
+        if (!visiting.add(resource)) {
+            throw new IOException("[LIB] dependency cycle through " + resource);
+        }
+        for (String dependency : graph.get(resource)) {
+            visit(dependency, graph, visiting, visited, order);
+        }
+        visiting.remove(resource);
+        visited.add(resource);
+        order.add(resource);
+    }
 
-            File parentFile = tmpLibFile.getParentFile();
-            if (!parentFile.exists()) {
-                parentFile.mkdirs();
+    /**
+     * 动态链接库在 classLoader 中的资源路径，优先使用平台 jar 的索引
+     *
+     * @param classLoader     类加载器
+     * @param prefix          前缀文件目录
+     * @param libName         动态链接库名称
+     * @param withPlatformDir 是否平台目录
+     * @return 资源路径
+     * @throws IOException 索引读取失败
+     */
+    static String resolveLibraryPath(final ClassLoader classLoader, final String prefix, final String libName,
+                                     final boolean withPlatformDir) throws IOException {
+        String platform = OS.os + "-" + OS.arch;
+        // Platform jars carry an index of their libraries, musl builds are preferred when running on musl.
+        String fullLibraryPath = OS.isMusl()
+                ? getIndexedLibPath(classLoader, prefix, platform + "-musl", libName) : null;
+        if (fullLibraryPath == null) {
+            fullLibraryPath = getIndexedLibPath(classLoader, prefix, platform, libName);
+        }
+        if (fullLibraryPath == null) {
+            fullLibraryPath = getJniLibPath(prefix, libName, withPlatformDir);
+            // musl builds are packaged next to the glibc ones, prefer them when running on musl.
+            if (OS.isMusl()) {
+                String muslLibraryPath = getJniLibPath(prefix, platform + "-musl", libName, withPlatformDir);
+                if (classLoader.getResource(muslLibraryPath) != null) {
+                    fullLibraryPath = muslLibraryPath;
+                }
             }
+        }
+        return fullLibraryPath;
+    }
 
-            Files.copy(libInputStream, tmpLibFullPath, StandardCopyOption.REPLACE_EXISTING);
-            System.load(tmpLibFullPath.toString());
+    /**
+     * 从索引 {@code [prefix/]META-INF/rust-maven/native/<platform>.properties} 查找动态链接库路径
+     *
+     * @return 资源路径，未索引时返回 null
+     */
+    private static String getIndexedLibPath(final ClassLoader classLoader, final String prefix, final String platform,
+                                            final String libName) throws IOException {
+        String path = getIndexEntry(classLoader, prefix, platform, libName.replace("-", "_"));
+        return path != null ? (prefix != null ? prefix + "/" : "") + path : null;
+    }
+
+    private static String getIndexEntry(final ClassLoader classLoader, final String prefix, final String platform,
+                                        final String key) throws IOException {
+        String actualPrefix = prefix != null ? prefix + "/" : "";
+        String indexPath = actualPrefix + NATIVE_INDEX_DIR + "/" + platform + ".properties";
+        try (InputStream indexInputStream = classLoader.getResourceAsStream(indexPath)) {
+            if (indexInputStream == null) {
+                return null;
+            }
+            Properties index = new Properties();
+            index.load(indexInputStream);
+            return index.getProperty(key);
         }
-        return true;
     }
 
     private static String getLibName(final String jniLibName) {
@@ -165,13 +465,18 @@ public final class JniLibLoader {
     }
 
     private static String getJniLibPath(final String prefix, final String libName, final boolean withPlatformDir) {
+        return getJniLibPath(prefix, OS.os + "-" + OS.arch, libName, withPlatformDir);
+    }
+
+    private static String getJniLibPath(final String prefix, final String platform, final String libName,
+                                        final boolean withPlatformDir) {
         String actualPrefix = prefix != null ? prefix + "/" : "";
         String libPrefix = OS.isWindows() ? "" : "lib";
         String libSuffix = OS.isWindows() ? ".dll" : OS.isOSX() ? ".dylib" : ".so";
         String platformLibName = libName.replace("-", "_");
         if (withPlatformDir) {
-            return actualPrefix + OS.os + "-" + OS.arch + "/" + libPrefix + platformLibName + libSuffix;
+            return actualPrefix + platform + "/" + libPrefix + platformLibName + libSuffix;
         }
-        return actualPrefix + libPrefix + platformLibName + "-" + OS.os + "-" + OS.arch + libSuffix;
+        return actualPrefix + libPrefix + platformLibName + "-" + platform + libSuffix;
     }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A direct buffer borrowed from a {@link NativeBufferPool}.
+ *
+ * <p>
+ * The memory of a direct buffer never moves, so native code can keep using the address returned by JNI's
+ * {@code GetDirectBufferAddress} until the buffer is released, without copying or pinning a Java array. Release it
+ * exactly once, preferably with try-with-resources, and do not touch {@link #buffer()} afterwards: the memory is
+ * handed to the next caller.
+ *
+ * @author workoss
+ */
+public final class NativeBuffer implements AutoCloseable {
+
+    private final NativeBufferPool pool;
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile NativeBufferPool.Leak leak;
+
+    NativeBuffer(final NativeBufferPool pool, final ByteBuffer buffer, final int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    void track(final NativeBufferPool.Leak leak) {
+        this.leak = leak;
+    }
+
+    /**
+     * 获取直接内存 buffer
+     *
+     * @return 直接内存 buffer，position 为 0，limit 为申请的大小，本地字节序
+     * @throws IllegalStateException 已释放
+     */
+    public ByteBuffer buffer() {
+        if (released.get()) {
+            throw new IllegalStateException("[BUF] buffer already released");
+        }
+        return buffer;
+    }
+
+    /**
+     * 实际容量
+     *
+     * @return 实际容量，即所属的大小级别
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Return the memory to the pool.
+     *
+     * @throws IllegalStateException 重复释放
+     */
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            throw new IllegalStateException("[BUF] buffer already released");
+        }
+        NativeBufferPool.Leak tracked = leak;
+        if (tracked != null) {
+            pool.untrack(tracked);
+        }
+        pool.recycle(buffer, sizeClass);
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct buffers for passing data to native code without copying.
+ *
+ * <p>
+ * Requests are rounded up to a power-of-two size class between {@link Builder#minSize} and {@link Builder#maxSize}.
+ * Released buffers of the small classes, up to {@link Builder#maxThreadCachedSize}, first go to a cache of the
+ * releasing thread, so that the common acquire and release on the same thread touches no shared state. The others go
+ * to a shared free list per size class, all of which together hold at most {@link Builder#maxPooledBytes}. Larger
+ * requests are allocated on every call and left to the garbage collector once released.
+ *
+ * <p>
+ * With the system property {@value #LEAK_DETECTION_PROPERTY} set to {@code true}, every acquire records its stack
+ * trace and buffers that become unreachable without being released are logged.
+ *
+ * <pre>{@code
+ * try (NativeBuffer buffer = NativeBufferPool.getInstance().acquire(payload.length)) {
+ *     buffer.buffer().put(payload);
+ *     codec.encode(buffer.buffer(), payload.length);
+ * }
+ * }</pre>
+ *
+ * @author workoss
+ */
+public final class NativeBufferPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger("io.github.workoss.jni.NativeBufferPool");
+
+    /**
+     * 是否开启泄漏检测的系统属性
+     */
+    public static final String LEAK_DETECTION_PROPERTY = "io.github.workoss.jni.buffer.leakDetection";
+
+    private static volatile NativeBufferPool instance = null;
+
+    private final int minShift;
+    private final int maxShift;
+    private final int threadCacheSize;
+    private final int threadCachedClasses;
+    private final long maxPooledBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] shared;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final ThreadLocal<ByteBuffer[][]> threadCaches;
+    private final ThreadLocal<int[]> threadCacheCounts;
+
+    private final boolean leakDetection;
+    private final ReferenceQueue<NativeBuffer> leakQueue = new ReferenceQueue<>();
+    private final Set<Leak> tracked = ConcurrentHashMap.newKeySet();
+
+    @SuppressWarnings("unchecked")
+    private NativeBufferPool(final Builder builder) {
+        this.minShift = shift(builder.minSize);
+        this.maxShift = Math.max(minShift, shift(builder.maxSize));
+        this.threadCacheSize = builder.threadCacheSize;
+        int cachedShift = builder.maxThreadCachedSize <= 0 || threadCacheSize == 0
+                ? minShift - 1 : Math.min(maxShift, shift(builder.maxThreadCachedSize));
+        this.threadCachedClasses = Math.max(0, cachedShift - minShift + 1);
+        this.maxPooledBytes = builder.maxPooledBytes;
+        int classes = maxShift - minShift + 1;
+        this.shared = new ConcurrentLinkedQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> new ByteBuffer[threadCachedClasses][threadCacheSize]);
+        this.threadCacheCounts = ThreadLocal.withInitial(() -> new int[threadCachedClasses]);
+        this.leakDetection = builder.leakDetection;
+    }
+
+    /**
+     * 获取默认的 pool 实例
+     *
+     * @return 实例
+     */
+    public static NativeBufferPool getInstance() {
+        if (instance != null) {
+            return instance;
+        }
+        synchronized (NativeBufferPool.class) {
+            if (instance == null) {
+                instance = builder().build();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 创建 builder
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Borrow a direct buffer of at least {@code size} bytes.
+     *
+     * @param size 需要的字节数
+     * @return buffer，position 为 0，limit 为 {@code size}
+     */
+    public NativeBuffer acquire(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("[BUF] negative size " + size);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = pop(sizeClass);
+            if (buffer == null) {
+                buffer = shared[sizeClass].poll();
+                if (buffer != null) {
+                    pooledBytes.addAndGet(-buffer.capacity());
+                }
+            }
+        }
+        if (buffer == null) {
+            int capacity = sizeClass >= 0 ? 1 << (minShift + sizeClass) : size;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        buffer.limit(size);
+        NativeBuffer nativeBuffer = new NativeBuffer(this, buffer, sizeClass);
+        if (leakDetection) {
+            reportLeaks();
+            Leak leak = new Leak(nativeBuffer, leakQueue, buffer.capacity());
+            tracked.add(leak);
+            nativeBuffer.track(leak);
+        }
+        return nativeBuffer;
+    }
+
+    void recycle(final ByteBuffer buffer, final int sizeClass) {
+        if (sizeClass < 0) {
+            return;
+        }
+        if (push(sizeClass, buffer)) {
+            return;
+        }
+        if (pooledBytes.addAndGet(buffer.capacity()) <= maxPooledBytes) {
+            shared[sizeClass].offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+    }
+
+    void untrack(final Leak leak) {
+        tracked.remove(leak);
+        leak.clear();
+    }
+
+    private ByteBuffer pop(final int sizeClass) {
+        if (sizeClass >= threadCachedClasses) {
+            return null;
+        }
+        int[] counts = threadCacheCounts.get();
+        if (counts[sizeClass] == 0) {
+            return null;
+        }
+        ByteBuffer[] cache = threadCaches.get()[sizeClass];
+        int top = --counts[sizeClass];
+        ByteBuffer buffer = cache[top];
+        cache[top] = null;
+        return buffer;
+    }
+
+    private boolean push(final int sizeClass, final ByteBuffer buffer) {
+        if (sizeClass >= threadCachedClasses) {
+            return false;
+        }
+        int[] counts = threadCacheCounts.get();
+        if (counts[sizeClass] == threadCacheSize) {
+            return false;
+        }
+        threadCaches.get()[sizeClass][counts[sizeClass]++] = buffer;
+        return true;
+    }
+
+    private void reportLeaks() {
+        Leak leak;
+        while ((leak = (Leak) leakQueue.poll()) != null) {
+            if (tracked.remove(leak)) {
+                LOG.error("[BUF] buffer of {} bytes was never released", leak.capacity, leak.site);
+            }
+        }
+    }
+
+    /**
+     * Index of the smallest size class holding {@code size} bytes, or -1 above the largest one.
+     */
+    private int sizeClass(final int size) {
+        if (size > 1 << maxShift) {
+            return -1;
+        }
+        int shift = size <= 1 << minShift ? minShift : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift - minShift;
+    }
+
+    private static int shift(final int size) {
+        if (size <= 0 || size > 1 << 30) {
+            throw new IllegalArgumentException("[BUF] unsupported size class " + size);
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    static final class Leak extends PhantomReference<NativeBuffer> {
+
+        private final int capacity;
+        private final Throwable site = new Throwable("Acquired here");
+
+        Leak(final NativeBuffer referent, final ReferenceQueue<NativeBuffer> queue, final int capacity) {
+            super(referent, queue);
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * NativeBufferPool 构建器
+     */
+    public static final class Builder {
+
+        private int minSize = 4096;
+        private int maxSize = 16 * 1024 * 1024;
+        private int threadCacheSize = 4;
+        private int maxThreadCachedSize = 64 * 1024;
+        private long maxPooledBytes = 64L * 1024 * 1024;
+        private boolean leakDetection = Boolean.getBoolean(LEAK_DETECTION_PROPERTY);
+
+        private Builder() {
+        }
+
+        /**
+         * 设置最小的大小级别
+         *
+         * @param minSize 最小的大小级别，向上取 2 的幂，默认 4 KiB
+         * @return builder
+         */
+        public Builder minSize(final int minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        /**
+         * 设置最大的大小级别
+         *
+         * @param maxSize 最大的大小级别，向上取 2 的幂，默认 16 MiB，更大的申请不进入 pool
+         * @return builder
+         */
+        public Builder maxSize(final int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * 设置线程缓存大小
+         *
+         * @param threadCacheSize 每个线程每个大小级别缓存的 buffer 数，默认 4
+         * @return builder
+         */
+        public Builder threadCacheSize(final int threadCacheSize) {
+            this.threadCacheSize = Math.max(0, threadCacheSize);
+            return this;
+        }
+
+        /**
+         * 设置线程缓存的最大大小级别
+         *
+         * @param maxThreadCachedSize 进入线程缓存的最大大小级别，默认 64 KiB，更大的只进入共享空闲列表
+         * @return builder
+         */
+        public Builder maxThreadCachedSize(final int maxThreadCachedSize) {
+            this.maxThreadCachedSize = maxThreadCachedSize;
+            return this;
+        }
+
+        /**
+         * 设置共享空闲列表大小
+         *
+         * @param maxPooledBytes 所有共享空闲列表保留的总字节数，默认 64 MiB
+         * @return builder
+         */
+        public Builder maxPooledBytes(final long maxPooledBytes) {
+            this.maxPooledBytes = Math.max(0, maxPooledBytes);
+            return this;
+        }
+
+        /**
+         * 设置是否开启泄漏检测
+         *
+         * @param leakDetection 是否开启泄漏检测，默认读取系统属性 {@value #LEAK_DETECTION_PROPERTY}
+         * @return builder
+         */
+        public Builder leakDetection(final boolean leakDetection) {
+            this.leakDetection = leakDetection;
+            return this;
+        }
+
+        /**
+         * 创建 pool
+         *
+         * @return pool
+         */
+        public NativeBufferPool build() {
+            return new NativeBufferPool(this);
+        }
+    }
+}
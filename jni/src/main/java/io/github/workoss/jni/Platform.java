@@ -0,0 +1,435 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable description of an operating system and architecture, in the {@code os.detected.*} naming of the
+ * os-maven-plugin.
+ *
+ * <p>
+ * Only the name, architecture and classifier are computed up front, by table lookups. The version, the Linux
+ * release read from {@code /etc/os-release} and the musl check are computed on first use, and system properties are
+ * only written by {@link #exportSystemProperties()}, or at startup when {@value #EXPORT_PROPERTY} is {@code true}.
+ *
+ * @author workoss
+ */
+public final class Platform {
+
+    /**
+     * 设为 true 时，{@link OS} 初始化时导出 {@code os.detected.*} 系统属性
+     */
+    public static final String EXPORT_PROPERTY = "io.github.workoss.jni.os.exportProperties";
+
+    private static final String UNKNOWN = "unknown";
+    private static final String LINUX = "linux";
+
+    private static final String DETECTED_NAME = "os.detected.name";
+    private static final String DETECTED_ARCH = "os.detected.arch";
+    private static final String DETECTED_VERSION = "os.detected.version";
+    private static final String DETECTED_CLASSIFIER = "os.detected.classifier";
+    private static final String DETECTED_RELEASE = "os.detected.release";
+
+    private static final String[][] OS_PREFIXES = {
+            {"aix", "aix"}, {"hpux", "hpux"}, {"os400", "os400"}, {"linux", LINUX}, {"macosx", "osx"},
+            {"osx", "osx"}, {"freebsd", "freebsd"}, {"openbsd", "openbsd"}, {"netbsd", "netbsd"},
+            {"solaris", "sunos"}, {"sunos", "sunos"}, {"windows", "windows"}, {"zos", "zos"}};
+
+    private static final Map<String, String> ARCHES = new HashMap<>();
+
+    static {
+        registerArch("x86_64", "x8664", "amd64", "ia32e", "em64t", "x64");
+        registerArch("x86_32", "x8632", "x86", "i386", "i486", "i586", "i686", "ia32", "x32");
+        registerArch("itanium_64", "ia64", "ia64w", "itanium64");
+        registerArch("itanium_32", "ia64n");
+        registerArch("sparc_32", "sparc", "sparc32");
+        registerArch("sparc_64", "sparcv9", "sparc64");
+        registerArch("arm_32", "arm", "arm32");
+        registerArch("aarch_64", "aarch64");
+        registerArch("mips_32", "mips", "mips32");
+        registerArch("mipsel_32", "mipsel", "mips32el");
+        registerArch("mips_64", "mips64");
+        registerArch("mipsel_64", "mips64el");
+        registerArch("ppc_32", "ppc", "ppc32");
+        registerArch("ppcle_32", "ppcle", "ppc32le");
+        registerArch("ppc_64", "ppc64");
+        registerArch("ppcle_64", "ppc64le");
+        registerArch("s390_32", "s390");
+        registerArch("s390_64", "s390x");
+        registerArch("riscv64", "riscv64");
+        registerArch("loongarch_64", "loongarch64");
+    }
+
+    private static final Pattern VERSION_REGEX = Pattern.compile("((\\d+)\\.(\\d+)).*");
+    private static final Pattern REDHAT_MAJOR_VERSION_REGEX = Pattern.compile("(\\d+)");
+    private static final String[] LINUX_OS_RELEASE_FILES = {"/etc/os-release", "/usr/lib/os-release"};
+    private static final String REDHAT_RELEASE_FILE = "/etc/redhat-release";
+
+    private final String os;
+    private final String arch;
+    private final String classifier;
+    private final String osVersion;
+
+    private volatile String[] version;
+    private volatile LinuxRelease release;
+    private volatile Boolean musl;
+
+    private Platform(final String os, final String arch, final String osVersion) {
+        this.os = os;
+        this.arch = arch;
+        this.classifier = os + "-" + arch;
+        this.osVersion = osVersion;
+    }
+
+    /**
+     * The platform of this JVM. Fails on an unknown name or architecture unless the system property
+     * {@code failOnUnknownOS} is {@code false}.
+     *
+     * @return 当前平台
+     */
+    public static Platform current() {
+        return CurrentHolder.CURRENT;
+    }
+
+    /**
+     * 按名称解析平台
+     *
+     * @param osName    {@code os.name}
+     * @param osArch    {@code os.arch}
+     * @param osVersion {@code os.version}，可为 null
+     * @return 对应的平台，无法识别的部分为 {@code unknown}
+     */
+    public static Platform of(final String osName, final String osArch, final String osVersion) {
+        return new Platform(normalizeOs(osName), normalizeArch(osArch), osVersion);
+    }
+
+    public String os() {
+        return os;
+    }
+
+    public String arch() {
+        return arch;
+    }
+
+    /**
+     * 平台分类器
+     *
+     * @return {@code $os-$arch}
+     */
+    public String classifier() {
+        return classifier;
+    }
+
+    public boolean isWindows() {
+        return "windows".equals(os);
+    }
+
+    public boolean isLinux() {
+        return LINUX.equals(os);
+    }
+
+    @SuppressWarnings("AbbreviationAsWordInName")
+    public boolean isOSX() {
+        return "osx".equals(os);
+    }
+
+    public boolean is32bit() {
+        return "x86_32".equals(arch);
+    }
+
+    public boolean is64bit() {
+        return "x86_64".equals(arch);
+    }
+
+    /**
+     * 系统版本
+     *
+     * @return {@code major.minor} of {@code os.version}，无法解析时为 null
+     */
+    public String version() {
+        return versionParts()[0];
+    }
+
+    public String versionMajor() {
+        return versionParts()[1];
+    }
+
+    public String versionMinor() {
+        return versionParts()[2];
+    }
+
+    /**
+     * Linux 发行版 ID
+     *
+     * @return Linux 发行版 ID，如 {@code ubuntu}，非 Linux 或无法识别时为 null
+     */
+    public String releaseId() {
+        LinuxRelease linuxRelease = linuxRelease();
+        return linuxRelease != null ? linuxRelease.id : null;
+    }
+
+    public String releaseVersion() {
+        LinuxRelease linuxRelease = linuxRelease();
+        return linuxRelease != null ? linuxRelease.version : null;
+    }
+
+    /**
+     * 发行版 ID 及其类似发行版
+     *
+     * @return 发行版 ID 及其 {@code ID_LIKE}，非 Linux 时为空
+     */
+    public Set<String> releaseLike() {
+        LinuxRelease linuxRelease = linuxRelease();
+        return linuxRelease != null ? linuxRelease.like : Collections.emptySet();
+    }
+
+    /**
+     * Whether the C library is musl (e.g. Alpine), whose native libraries are packaged in a
+     * {@code $os-$arch-musl} directory.
+     *
+     * @return true on a musl based Linux
+     */
+    public boolean isMusl() {
+        Boolean result = musl;
+        if (result == null) {
+            String[] loaders = isLinux() ? new File("/lib").list((dir, name) -> name.startsWith("ld-musl-")) : null;
+            result = loaders != null && loaders.length > 0;
+            musl = result;
+        }
+        return result;
+    }
+
+    /**
+     * Set the {@code os.detected.*} system properties the os-maven-plugin would, including the Linux release ones.
+     */
+    public void exportSystemProperties() {
+        System.setProperty(DETECTED_NAME, os);
+        System.setProperty(DETECTED_ARCH, arch);
+        System.setProperty(DETECTED_CLASSIFIER, classifier);
+        if (version() != null) {
+            System.setProperty(DETECTED_VERSION, version());
+            System.setProperty(DETECTED_VERSION + ".major", versionMajor());
+            System.setProperty(DETECTED_VERSION + ".minor", versionMinor());
+        }
+        LinuxRelease linuxRelease = linuxRelease();
+        if (linuxRelease != null) {
+            System.setProperty(DETECTED_RELEASE, linuxRelease.id);
+            if (linuxRelease.version != null) {
+                System.setProperty(DETECTED_RELEASE + ".version", linuxRelease.version);
+            }
+            for (String like : linuxRelease.like) {
+                System.setProperty(DETECTED_RELEASE + ".like." + like, "true");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return classifier;
+    }
+
+    private String[] versionParts() {
+        String[] parts = version;
+        if (parts == null) {
+            Matcher matcher = osVersion != null ? VERSION_REGEX.matcher(osVersion) : null;
+            if (matcher != null && matcher.matches()) {
+                parts = new String[]{matcher.group(1), matcher.group(2), matcher.group(3)};
+            } else {
+                parts = new String[3];
+            }
+            version = parts;
+        }
+        return parts;
+    }
+
+    private LinuxRelease linuxRelease() {
+        if (!isLinux()) {
+            return null;
+        }
+        LinuxRelease linuxRelease = release;
+        if (linuxRelease == null) {
+            linuxRelease = readLinuxRelease();
+            release = linuxRelease;
+        }
+        return linuxRelease == LinuxRelease.NONE ? null : linuxRelease;
+    }
+
+    private static void registerArch(final String arch, final String... names) {
+        for (String name : names) {
+            ARCHES.put(name, arch);
+        }
+    }
+
+    private static String normalizeOs(final String osName) {
+        String value = normalize(osName);
+        for (String[] prefix : OS_PREFIXES) {
+            if (value.startsWith(prefix[0])) {
+                // Avoid the names such as os4000
+                if ("os400".equals(prefix[0]) && value.length() > 5 && Character.isDigit(value.charAt(5))) {
+                    continue;
+                }
+                return prefix[1];
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static String normalizeArch(final String osArch) {
+        String arch = ARCHES.get(normalize(osArch));
+        return arch != null ? arch : UNKNOWN;
+    }
+
+    /**
+     * Lower case ASCII letters and digits of {@code value}, dropping everything else.
+     */
+    private static String normalize(final String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                builder.append((char) (c + ('a' - 'A')));
+            } else if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static LinuxRelease readLinuxRelease() {
+        for (String fileName : LINUX_OS_RELEASE_FILES) {
+            LinuxRelease linuxRelease = parseOsReleaseFile(fileName);
+            if (linuxRelease != null) {
+                return linuxRelease;
+            }
+        }
+        // Older versions of redhat don't have /etc/os-release.
+        LinuxRelease linuxRelease = parseRedhatReleaseFile();
+        return linuxRelease != null ? linuxRelease : LinuxRelease.NONE;
+    }
+
+    /**
+     * Parses a file in the format of {@code /etc/os-release}, using its {@code ID}, {@code ID_LIKE} and
+     * {@code VERSION_ID} entries.
+     */
+    private static LinuxRelease parseOsReleaseFile(final String fileName) {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            String id = null;
+            String version = null;
+            Set<String> like = new LinkedHashSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("ID=")) {
+                    id = releaseValue(line.substring(3));
+                    like.add(id);
+                } else if (line.startsWith("VERSION_ID=")) {
+                    version = releaseValue(line.substring(11));
+                } else if (line.startsWith("ID_LIKE=")) {
+                    Collections.addAll(like, releaseValue(line.substring(8)).split("\\s+"));
+                }
+            }
+            return id != null ? new LinuxRelease(id, version, like) : null;
+        } catch (IOException ignored) {
+            // Don't treat failure to read /etc/os-release as an error.
+            return null;
+        }
+    }
+
+    /**
+     * Parses {@code /etc/redhat-release}, which only identifies CentOS, Fedora and RHEL.
+     */
+    private static LinuxRelease parseRedhatReleaseFile() {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(REDHAT_RELEASE_FILE), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            line = line.toLowerCase(Locale.US);
+            String id;
+            if (line.contains("centos")) {
+                id = "centos";
+            } else if (line.contains("fedora")) {
+                id = "fedora";
+            } else if (line.contains("red hat enterprise linux")) {
+                id = "rhel";
+            } else {
+                return null;
+            }
+            Matcher versionMatcher = REDHAT_MAJOR_VERSION_REGEX.matcher(line);
+            String version = versionMatcher.find() ? versionMatcher.group(1) : null;
+            Set<String> like = new LinkedHashSet<>(Arrays.asList("rhel", "fedora"));
+            like.add(id);
+            return new LinuxRelease(id, version, like);
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    private static String releaseValue(final String value) {
+        return value.trim().replace("\"", "");
+    }
+
+    private static final class LinuxRelease {
+        static final LinuxRelease NONE = new LinuxRelease(null, null, Collections.emptySet());
+
+        final String id;
+        final String version;
+        final Set<String> like;
+
+        LinuxRelease(final String id, final String version, final Set<String> like) {
+            this.id = id;
+            this.version = version;
+            this.like = Collections.unmodifiableSet(new LinkedHashSet<>(like));
+        }
+    }
+
+    private static final class CurrentHolder {
+        private static final Platform CURRENT = detect();
+
+        private static Platform detect() {
+            String osName = System.getProperty("os.name");
+            String osArch = System.getProperty("os.arch");
+            Platform platform = of(osName, osArch, System.getProperty("os.version"));
+            if (!"false".equalsIgnoreCase(System.getProperty("failOnUnknownOS"))) {
+                if (UNKNOWN.equals(platform.os)) {
+                    throw new RuntimeException("unknown os.name: " + osName);
+                }
+                if (UNKNOWN.equals(platform.arch)) {
+                    throw new RuntimeException("unknown os.arch: " + osArch);
+                }
+            }
+            return platform;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Libraries extracted ahead of time, typically into a read-only directory of a container image, so that
+ * {@link JniLibLoader} loads them in place instead of copying them out of the jars on every start.
+ *
+ * <p>
+ * At image build time run {@code java -cp <classpath> io.github.workoss.jni.PreExtractedLibraries <dir>}, or the
+ * plugin's {@code pre-extract} goal, which extract every indexed library of the platform together with the bundled
+ * libraries they link against, and write the {@value #MANIFEST} manifest. At runtime point
+ * {@value #DIR_PROPERTY} or {@code $RUST_MAVEN_NATIVE_DIR} at the directory. Libraries missing from the manifest are
+ * still extracted as usual.
+ *
+ * <p>
+ * The manifest records the size and CRC-32 of every library. A library is only used in place if the file still has
+ * that size and, when the class path entry is a local jar, the jar entry has that size and CRC-32, which the central
+ * directory provides without reading the entry. With {@value #VERIFY_PROPERTY} set to {@code true} the file and class
+ * path files are hashed as well, which reads them on every start. Otherwise it is extracted as usual.
+ *
+ * @author workoss
+ */
+public final class PreExtractedLibraries {
+
+    private static final Logger LOG = LoggerFactory.getLogger("io.github.workoss.jni.PreExtractedLibraries");
+
+    /**
+     * 预解压目录的系统属性
+     */
+    public static final String DIR_PROPERTY = "io.github.workoss.jni.preExtractedDir";
+
+    /**
+     * 预解压目录的环境变量
+     */
+    public static final String DIR_ENV = "RUST_MAVEN_NATIVE_DIR";
+
+    /**
+     * 是否在每次启动时重新计算预解压文件 CRC-32 的系统属性
+     */
+    public static final String VERIFY_PROPERTY = "io.github.workoss.jni.preExtractedVerify";
+
+    /**
+     * 预解压目录中的清单，内容为 {@code <resource>=<size>,<crc32>,<path>} 以及 {@code platform=<os>-<arch>}
+     */
+    public static final String MANIFEST = "rust-maven-native.properties";
+
+    /**
+     * 清单中记录平台的键
+     */
+    public static final String PLATFORM_KEY = "platform";
+
+    private static final String MUSL_SUFFIX = "-musl";
+
+    private static final String USAGE =
+            "Usage: PreExtractedLibraries [--platform <os>-<arch>[-musl]] [--prefix <prefix>] <dir>";
+
+    private PreExtractedLibraries() {
+    }
+
+    /**
+     * 命令行入口，默认解压当前平台
+     *
+     * @param args 命令行参数
+     * @throws IOException 解压失败
+     */
+    public static void main(final String[] args) throws IOException {
+        String platform = null;
+        String prefix = null;
+        String dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("--platform".equals(args[i]) && i + 1 < args.length) {
+                platform = args[++i];
+            } else if ("--prefix".equals(args[i]) && i + 1 < args.length) {
+                prefix = args[++i];
+            } else if (dir == null && !args[i].startsWith("--")) {
+                dir = args[i];
+            } else {
+                dir = null;
+                break;
+            }
+        }
+        if (dir == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (platform == null) {
+            platform = OS.os + "-" + OS.arch + (OS.isMusl() ? MUSL_SUFFIX : "");
+        }
+        Map<String, String> extracted = extract(Thread.currentThread().getContextClassLoader(), prefix, platform,
+                Paths.get(dir));
+        System.out.println("Extracted " + extracted.size() + " libraries for " + platform + " to " + dir);
+    }
+
+    /**
+     * 解压平台索引中的全部动态链接库及其打包在 jar 中的依赖库，并写入清单
+     *
+     * @param classLoader 类加载器
+     * @param prefix      前缀文件目录
+     * @param platform    平台，{@code <os>-<arch>}，musl 平台同时包含对应的 glibc 索引
+     * @param dir         解压目录
+     * @return 资源路径到相对解压目录路径的映射
+     * @throws IOException 解压失败
+     */
+    public static Map<String, String> extract(final ClassLoader classLoader, final String prefix,
+                                              final String platform, final Path dir) throws IOException {
+        String actualPrefix = prefix != null ? prefix + "/" : "";
+        List<String> platforms = new ArrayList<>();
+        platforms.add(platform);
+        if (platform.endsWith(MUSL_SUFFIX)) {
+            platforms.add(platform.substring(0, platform.length() - MUSL_SUFFIX.length()));
+        }
+        List<String> pending = new ArrayList<>();
+        for (String indexPlatform : platforms) {
+            String indexPath = actualPrefix + JniLibLoader.NATIVE_INDEX_DIR + "/" + indexPlatform + ".properties";
+            Enumeration<URL> indexes = classLoader.getResources(indexPath);
+            while (indexes.hasMoreElements()) {
+                Properties index = new Properties();
+                try (InputStream in = indexes.nextElement().openStream()) {
+                    index.load(in);
+                }
+                for (String key : index.stringPropertyNames()) {
+                    if (!key.endsWith(JniLibLoader.DEPENDENCIES_SUFFIX)) {
+                        pending.add(actualPrefix + index.getProperty(key));
+                    }
+                }
+            }
+        }
+
+        Map<String, String> extracted = new TreeMap<>();
+        while (!pending.isEmpty()) {
+            String resource = pending.remove(pending.size() - 1);
+            URL url = classLoader.getResource(resource);
+            if (extracted.containsKey(resource) || url == null) {
+                continue;
+            }
+            Path file = dir.resolve(resource);
+            Files.createDirectories(file.getParent());
+            StoredJarEntry.copy(classLoader, resource, file);
+            extracted.put(resource, resource);
+            String resourceDir = resource.substring(0, resource.lastIndexOf('/') + 1);
+            for (String needed : ElfDependencies.needed(file)) {
+                if (classLoader.getResource(resourceDir + needed) != null) {
+                    pending.add(resourceDir + needed);
+                }
+            }
+        }
+
+        // Sorted and without a timestamp, so the image layer is reproducible.
+        Files.createDirectories(dir);
+        try (Writer out = Files.newBufferedWriter(dir.resolve(MANIFEST), StandardCharsets.ISO_8859_1)) {
+            out.write("# Generated by PreExtractedLibraries\n");
+            out.write(PLATFORM_KEY + "=" + platform + "\n");
+            for (Map.Entry<String, String> entry : extracted.entrySet()) {
+                Path file = dir.resolve(entry.getValue());
+                String value = Files.size(file) + "," + Long.toHexString(StoredJarEntry.crc(file)) + ","
+                        + entry.getValue();
+                out.write(escape(entry.getKey()) + "=" + escape(value) + "\n");
+            }
+        }
+        return extracted;
+    }
+
+    /**
+     * 预解压的动态链接库
+     *
+     * @param classLoader 类加载器，用于比对 jar 中的条目
+     * @param resource    资源路径
+     * @return 文件，未预解压或与 jar 中的条目不一致时返回 null
+     */
+    static Path lookup(final ClassLoader classLoader, final String resource) {
+        Library library = Holder.LIBRARIES.get(resource);
+        if (library == null) {
+            return null;
+        }
+        try {
+            boolean verify = Boolean.getBoolean(VERIFY_PROPERTY);
+            if (!Files.isRegularFile(library.file) || Files.size(library.file) != library.size
+                    || verify && StoredJarEntry.crc(library.file) != library.crc) {
+                LOG.warn("[LIB] pre-extracted {} is missing or modified, extracting it", library.file);
+                return null;
+            }
+            URL url = classLoader.getResource(resource);
+            // A class path file has no recorded CRC-32, only a jar entry has one in the central directory.
+            boolean compare = url != null && (verify || !"file".equals(url.getProtocol()));
+            long[] current = compare ? StoredJarEntry.sizeAndCrc(url) : null;
+            if (current != null && (current[0] != library.size || current[1] != library.crc)) {
+                LOG.warn("[LIB] pre-extracted {} differs from {}, extracting it", library.file, url);
+                return null;
+            }
+        } catch (IOException e) {
+            LOG.warn("[LIB] check pre-extracted {} error: {}", library.file, e.getMessage());
+            return null;
+        }
+        return library.file;
+    }
+
+    private static Map<String, Library> load() {
+        String dir = System.getProperty(DIR_PROPERTY, System.getenv(DIR_ENV));
+        if (dir == null || dir.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Path root = Paths.get(dir).toAbsolutePath();
+        Path manifest = root.resolve(MANIFEST);
+        if (!Files.isRegularFile(manifest)) {
+            LOG.warn("[LIB] {} has no {}, libraries are extracted", root, MANIFEST);
+            return Collections.emptyMap();
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(manifest)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.warn("[LIB] read {} error: {}", manifest, e.getMessage());
+            return Collections.emptyMap();
+        }
+        String platform = properties.getProperty(PLATFORM_KEY, "");
+        if (platform.endsWith(MUSL_SUFFIX)) {
+            platform = platform.substring(0, platform.length() - MUSL_SUFFIX.length());
+        }
+        if (!platform.equals(OS.os + "-" + OS.arch)) {
+            LOG.warn("[LIB] {} was extracted for {}, libraries are extracted", root, platform);
+            return Collections.emptyMap();
+        }
+        Map<String, Library> libraries = new HashMap<>();
+        for (String resource : properties.stringPropertyNames()) {
+            if (PLATFORM_KEY.equals(resource)) {
+                continue;
+            }
+            String[] value = properties.getProperty(resource).split(",", 3);
+            try {
+                libraries.put(resource, new Library(root.resolve(value[2]), Long.parseLong(value[0]),
+                        Long.parseLong(value[1], 16)));
+            } catch (RuntimeException e) {
+                LOG.warn("[LIB] {} has no size and checksum in {}, it is extracted", resource, manifest);
+            }
+        }
+        LOG.info("[LIB] using {} pre-extracted libraries from {}", libraries.size(), root);
+        return libraries;
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace(":", "\\:").replace("=", "\\=").replace(" ", "\\ ");
+    }
+
+    /**
+     * A library of the manifest.
+     */
+    private static final class Library {
+        private final Path file;
+        private final long size;
+        private final long crc;
+
+        Library(final Path file, final long size, final long crc) {
+            this.file = file;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    private static final class Holder {
+        private static final Map<String, Library> LIBRARIES = load();
+    }
+}
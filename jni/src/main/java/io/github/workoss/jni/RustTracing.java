@@ -0,0 +1,347 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bridges tracing spans and counters of native code into JFR, as {@code io.github.workoss.jni.RustSpan} and
+ * {@code io.github.workoss.jni.RustCounter} events.
+ *
+ * <p>
+ * Native code writes fixed-size records into a shared ring buffer and never calls back into Java per event. Names
+ * are interned once with {@link #registerName(String)}, which native code calls through JNI the first time it sees
+ * a span or counter name and then caches the id. A daemon thread drains the ring every 10 ms, or as set by the system
+ * property {@value #DRAIN_INTERVAL_PROPERTY}, and commits the events, so their JFR timestamps lag by up to that
+ * interval. The native start time and duration are kept exactly in event fields.
+ *
+ * <p>
+ * Note that the events are committed without {@code begin()}/{@code end()}: in JFR's own timeline every
+ * {@code RustSpan} sits at the time it was drained with a zero duration. Use the {@code nativeStart} and
+ * {@code nativeDuration} fields, e.g. with {@code jfr print --events RustSpan} or a JMC event browser column, to see
+ * when a span ran and for how long.
+ *
+ * <p>
+ * A begin record whose end record was dropped would stay open forever. Spans still open after 60 s of native time,
+ * or as set by the system property {@value #SPAN_TIMEOUT_PROPERTY}, are discarded and counted by {@link #dropped()}.
+ *
+ * <p>
+ * The buffer returned by {@link #start()} starts with a 64-byte header, all fields in native byte order:
+ * <pre>
+ * 0   u32 magic 0x52535452 ("RSTR")   4   u32 version 1
+ * 8   u32 capacity, records (2^n)    12   u32 record size 64
+ * 16  u64 enqueue position           24   u64 dropped records
+ * </pre>
+ * followed by {@code capacity} 64-byte records:
+ * <pre>
+ * 0   u64 sequence                      8   u64 timestamp, CLOCK_MONOTONIC ns like System.nanoTime() on Linux
+ * 16  u64 span id, or counter value     24   u64 native thread id
+ * 32  u32 name id                       36   u32 kind
+ * </pre>
+ * with kind 1 for span begin, 2 for span end and 3 for a counter sample. The sequence of record {@code i} starts at
+ * {@code i}. A producer claims position {@code p} in slot {@code p & (capacity - 1)} when the slot's sequence equals
+ * {@code p}, by compare-and-swapping the enqueue position from {@code p} to {@code p + 1}. It then writes the fields
+ * and publishes them by storing {@code p + 1} into the sequence with release ordering. If the sequence is lower than
+ * {@code p} the ring is full: the producer increments the dropped counter and discards the record instead of waiting.
+ *
+ * @author workoss
+ */
+public final class RustTracing {
+
+    private static final Logger LOG = LoggerFactory.getLogger("io.github.workoss.jni.RustTracing");
+
+    /**
+     * 环形缓冲区记录数的系统属性，取 2 的幂，默认 16384
+     */
+    public static final String CAPACITY_PROPERTY = "io.github.workoss.jni.tracing.capacity";
+
+    /**
+     * 消费间隔（毫秒）的系统属性，默认 10
+     */
+    public static final String DRAIN_INTERVAL_PROPERTY = "io.github.workoss.jni.tracing.drainInterval";
+
+    /**
+     * 未结束 span 的超时（毫秒）的系统属性，默认 60000，超时的 span 计入丢弃数
+     */
+    public static final String SPAN_TIMEOUT_PROPERTY = "io.github.workoss.jni.tracing.spanTimeout";
+
+    static final int KIND_SPAN_BEGIN = 1;
+    static final int KIND_SPAN_END = 2;
+    static final int KIND_COUNTER = 3;
+
+    private static final int MAGIC = 0x52535452;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int DROPPED_OFFSET = 24;
+
+    private static final MethodHandle LOAD_FENCE;
+    private static final MethodHandle FULL_FENCE;
+
+    static {
+        MethodHandle loadFence = null;
+        MethodHandle fullFence = null;
+        try {
+            // Looked up reflectively so that the build does not depend on the internal API.
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodType fence = MethodType.methodType(void.class);
+            loadFence = MethodHandles.lookup().findVirtual(type, "loadFence", fence).bindTo(unsafe);
+            fullFence = MethodHandles.lookup().findVirtual(type, "fullFence", fence).bindTo(unsafe);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("[TRACE] sun.misc.Unsafe is not available, the ring buffer is read without fences");
+            loadFence = null;
+            fullFence = null;
+        }
+        LOAD_FENCE = loadFence;
+        FULL_FENCE = fullFence;
+    }
+
+    private static final Map<String, Integer> NAME_IDS = new ConcurrentHashMap<>();
+    private static final CopyOnWriteArrayList<String> NAMES = new CopyOnWriteArrayList<>();
+    private static final AtomicLong EVICTED_SPANS = new AtomicLong();
+
+    private static ByteBuffer ring;
+    private static Thread drainer;
+
+    private RustTracing() {
+    }
+
+    /**
+     * Allocate the ring buffer and start draining it. Repeated calls return the same buffer.
+     *
+     * @return 共享的直接内存 buffer，交给 native 代码，由其通过 {@code GetDirectBufferAddress} 获取地址
+     */
+    public static synchronized ByteBuffer start() {
+        if (ring != null) {
+            return ring.duplicate().order(ByteOrder.nativeOrder());
+        }
+        int requested = Math.max(2, Integer.getInteger(CAPACITY_PROPERTY, 16384));
+        int capacity = Integer.highestOneBit(requested - 1) << 1;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + capacity * RECORD_SIZE)
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, 1);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, RECORD_SIZE);
+        for (int i = 0; i < capacity; i++) {
+            buffer.putLong(HEADER_SIZE + i * RECORD_SIZE, i);
+        }
+        fullFence();
+        ring = buffer;
+        long interval = Math.max(1, Long.getLong(DRAIN_INTERVAL_PROPERTY, 10));
+        long spanTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong(SPAN_TIMEOUT_PROPERTY, 60_000)));
+        Drainer drain = new Drainer(buffer, capacity, interval, spanTimeout, sink());
+        drainer = new Thread(drain, "rust-tracing-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        LOG.info("[TRACE] ring buffer of {} records started", capacity);
+        return buffer.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Intern a span or counter name. Native code calls this once per name through JNI and caches the id.
+     *
+     * @param name span 或 counter 名称
+     * @return 名称 id
+     */
+    public static int registerName(final String name) {
+        Integer id = NAME_IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (NAMES) {
+            return NAME_IDS.computeIfAbsent(name, key -> {
+                NAMES.add(key);
+                return NAMES.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * 丢弃的记录数
+     *
+     * @return 因缓冲区满而丢弃的记录数，加上因缺少结束记录而超时丢弃的 span 数
+     */
+    public static synchronized long dropped() {
+        return (ring != null ? ring.getLong(DROPPED_OFFSET) : 0) + EVICTED_SPANS.get();
+    }
+
+    static String name(final int id) {
+        return id >= 0 && id < NAMES.size() ? NAMES.get(id) : "#" + id;
+    }
+
+    private static Sink sink() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return new JfrTracingSink();
+        } catch (ClassNotFoundException | LinkageError e) {
+            LOG.warn("[TRACE] JFR is not available, native traces are discarded");
+            return new Sink() {
+                @Override
+                public void span(final int nameId, final long spanId, final long thread, final long start,
+                                 final long duration) {
+                }
+
+                @Override
+                public void counter(final int nameId, final long value, final long thread, final long time) {
+                }
+            };
+        }
+    }
+
+    private static void loadFence() {
+        fence(LOAD_FENCE);
+    }
+
+    private static void fullFence() {
+        fence(FULL_FENCE);
+    }
+
+    private static void fence(final MethodHandle fence) {
+        if (fence == null) {
+            return;
+        }
+        try {
+            fence.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("[TRACE] fence failed", e);
+        }
+    }
+
+    /**
+     * Receives the drained events.
+     */
+    interface Sink {
+        void span(int nameId, long spanId, long thread, long start, long duration);
+
+        void counter(int nameId, long value, long thread, long time);
+    }
+
+    /**
+     * The single consumer of the ring. Pairs span begin and end records by span id, and evicts spans that stay open
+     * for longer than the timeout.
+     */
+    private static final class Drainer implements Runnable {
+        private final ByteBuffer ring;
+        private final int capacity;
+        private final long interval;
+        private final long spanTimeout;
+        private final Sink sink;
+        // In drain order, which is close to begin time order, so expired spans are found at the head.
+        private final Map<Long, long[]> openSpans = new LinkedHashMap<>();
+        private long position;
+
+        Drainer(final ByteBuffer ring, final int capacity, final long interval, final long spanTimeout,
+                final Sink sink) {
+            this.ring = ring;
+            this.capacity = capacity;
+            this.interval = interval;
+            this.spanTimeout = spanTimeout;
+            this.sink = sink;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    drain();
+                    TimeUnit.MILLISECONDS.sleep(interval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOG.error("[TRACE] drain error", e);
+                }
+            }
+        }
+
+        private void drain() {
+            long latest = Long.MIN_VALUE;
+            while (true) {
+                int slot = HEADER_SIZE + (int) (position & (capacity - 1)) * RECORD_SIZE;
+                if (ring.getLong(slot) != position + 1) {
+                    break;
+                }
+                loadFence();
+                final long time = ring.getLong(slot + 8);
+                final long value = ring.getLong(slot + 16);
+                final long thread = ring.getLong(slot + 24);
+                final int nameId = ring.getInt(slot + 32);
+                final int kind = ring.getInt(slot + 36);
+                // The fields must be read before the slot is handed back to the producers.
+                fullFence();
+                ring.putLong(slot, position + capacity);
+                position++;
+                switch (kind) {
+                    case KIND_SPAN_BEGIN:
+                        openSpans.put(value, new long[]{time, nameId, thread});
+                        break;
+                    case KIND_SPAN_END:
+                        long[] begin = openSpans.remove(value);
+                        if (begin != null) {
+                            sink.span((int) begin[1], value, begin[2], begin[0], time - begin[0]);
+                        }
+                        break;
+                    case KIND_COUNTER:
+                        sink.counter(nameId, value, thread, time);
+                        break;
+                    default:
+                        LOG.debug("[TRACE] unknown record kind {}", kind);
+                }
+                latest = Math.max(latest, time);
+            }
+            if (latest != Long.MIN_VALUE) {
+                evict(latest - spanTimeout);
+            }
+        }
+
+        /**
+         * Discard the open spans that began before {@code cutoff}, whose end record was most likely dropped.
+         */
+        private void evict(final long cutoff) {
+            Iterator<long[]> it = openSpans.values().iterator();
+            long evicted = 0;
+            while (it.hasNext()) {
+                if (it.next()[0] - cutoff >= 0) {
+                    break;
+                }
+                it.remove();
+                evicted++;
+            }
+            if (evicted > 0) {
+                EVICTED_SPANS.addAndGet(evicted);
+                LOG.debug("[TRACE] evicted {} spans without an end record", evicted);
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Copies a resource from a local file or a STORED entry of a local jar with {@link FileChannel#transferTo}, which
+ * lets the kernel copy the bytes (sendfile/copy_file_range) instead of inflating them through user-space buffers.
+ *
+ * <p>
+ * Compressed, encrypted and ZIP64 entries, nested jars and signed jars, whose entries the stream verifies, are left
+ * to the class loader's resource stream.
+ *
+ * @author workoss
+ */
+final class StoredJarEntry {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int STORED = 0;
+
+    private StoredJarEntry() {
+    }
+
+    /**
+     * 复制资源，不能零拷贝时回退到类加载器的资源流
+     *
+     * @param classLoader 类加载器
+     * @param name        资源名称
+     * @param target      目标文件
+     * @return 是否找到资源
+     * @throws IOException 复制失败
+     */
+    static boolean copy(final ClassLoader classLoader, final String name, final Path target) throws IOException {
+        URL resource = classLoader.getResource(name);
+        try {
+            if (resource != null && transfer(resource, target)) {
+                return true;
+            }
+        } catch (IOException e) {
+            // The stream below reports the actual error, if any.
+        }
+        try (InputStream in = classLoader.getResourceAsStream(name)) {
+            if (in == null) {
+                return false;
+            }
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * 零拷贝复制资源
+     *
+     * @param resource 资源 URL
+     * @param target   目标文件
+     * @return 是否已复制，false 时需回退到资源流
+     * @throws IOException 复制失败
+     */
+    static boolean transfer(final URL resource, final Path target) throws IOException {
+        if ("file".equals(resource.getProtocol())) {
+            Path source = toPath(resource);
+            if (source == null) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                transferRange(channel, 0, channel.size(), target);
+            }
+            return true;
+        }
+        JarURLConnection jarConnection = jarConnection(resource);
+        if (jarConnection == null) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(localJar(jarConnection), StandardOpenOption.READ)) {
+            long[] data = locate(channel, jarConnection.getEntryName());
+            if (data == null) {
+                return false;
+            }
+            transferRange(channel, data[0], data[1], target);
+        }
+        return true;
+    }
+
+    /**
+     * 资源的大小和 CRC-32，jar 条目取自中央目录，不读取内容
+     *
+     * @param resource 资源 URL
+     * @return 大小和 CRC-32，无法确定时返回 null
+     * @throws IOException 读取失败
+     */
+    static long[] sizeAndCrc(final URL resource) throws IOException {
+        if ("file".equals(resource.getProtocol())) {
+            Path source = toPath(resource);
+            return source != null ? new long[]{Files.size(source), crc(source)} : null;
+        }
+        JarURLConnection jarConnection = jarConnection(resource);
+        if (jarConnection == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(localJar(jarConnection), StandardOpenOption.READ)) {
+            CentralEntry entry = find(channel, jarConnection.getEntryName());
+            return entry != null && entry.size != ZIP64_MAGIC ? new long[]{entry.size, entry.crc} : null;
+        }
+    }
+
+    /**
+     * 计算文件的 CRC-32
+     *
+     * @param file 文件
+     * @return CRC-32
+     * @throws IOException 读取失败
+     */
+    static long crc(final Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 解析 jar 资源 URL，仅适用于本地 jar 中的条目
+     *
+     * @return 连接，未打开 jar，不适用时返回 null
+     */
+    private static JarURLConnection jarConnection(final URL resource) throws IOException {
+        if (!"jar".equals(resource.getProtocol())) {
+            return null;
+        }
+        // Only parses the URL, the jar is not opened before connect().
+        URLConnection connection = resource.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            return null;
+        }
+        JarURLConnection jarConnection = (JarURLConnection) connection;
+        return jarConnection.getEntryName() != null && localJar(jarConnection) != null ? jarConnection : null;
+    }
+
+    private static Path localJar(final JarURLConnection jarConnection) {
+        URL jarFileUrl = jarConnection.getJarFileURL();
+        return "file".equals(jarFileUrl.getProtocol()) ? toPath(jarFileUrl) : null;
+    }
+
+    /**
+     * 在中央目录中查找 STORED 条目
+     *
+     * @return 数据偏移和长度，不适用时返回 null
+     */
+    static long[] locate(final FileChannel channel, final String entryName) throws IOException {
+        CentralEntry found = find(channel, entryName);
+        // Signed jars are left to the resource stream, which verifies the entries.
+        if (found == null || found.signed || found.method != STORED || (found.flags & 1) != 0
+                || found.compressedSize != found.size || found.compressedSize == ZIP64_MAGIC
+                || found.localHeader == ZIP64_MAGIC) {
+            return null;
+        }
+        long size = channel.size();
+        ByteBuffer local = read(channel, found.localHeader, 30);
+        if (local.getInt(0) != LOCAL_HEADER) {
+            return null;
+        }
+        long data = found.localHeader + 30 + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+        return data + found.compressedSize <= size ? new long[]{data, found.compressedSize} : null;
+    }
+
+    /**
+     * 在中央目录中查找条目
+     *
+     * @return 条目，未找到或不是可解析的 jar 时返回 null
+     */
+    private static CentralEntry find(final FileChannel channel, final String entryName) throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, size - tailSize, tailSize);
+        int end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+        while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY) {
+            end--;
+        }
+        if (end < 0) {
+            return null;
+        }
+        long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+        if (directoryOffset == ZIP64_MAGIC || directoryOffset + directorySize > size) {
+            return null;
+        }
+        MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+        directory.order(ByteOrder.LITTLE_ENDIAN);
+        CentralEntry found = null;
+        boolean signed = false;
+        int header = 0;
+        while (header + 46 <= directorySize && directory.getInt(header) == CENTRAL_HEADER) {
+            int nameLength = directory.getShort(header + 28) & 0xffff;
+            int extraLength = directory.getShort(header + 30) & 0xffff;
+            int commentLength = directory.getShort(header + 32) & 0xffff;
+            String current = nameAt(directory, header + 46, nameLength);
+            if (current.startsWith("META-INF/") && current.endsWith(".SF")) {
+                signed = true;
+            }
+            if (found == null && current.equals(entryName)) {
+                found = new CentralEntry(directory, header);
+            }
+            header += 46 + nameLength + extraLength + commentLength;
+        }
+        if (found != null) {
+            found.signed = signed;
+        }
+        return found;
+    }
+
+    private static void transferRange(final FileChannel source, final long offset, final long size,
+                                      final Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(offset + position, size - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("unexpected end of " + source + " at " + (offset + position));
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of " + channel);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String nameAt(final MappedByteBuffer directory, final int offset, final int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = directory.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Path toPath(final URL url) {
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An entry of the central directory.
+     */
+    private static final class CentralEntry {
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeader;
+        private boolean signed;
+
+        CentralEntry(final MappedByteBuffer directory, final int header) {
+            this.flags = directory.getShort(header + 8) & 0xffff;
+            this.method = directory.getShort(header + 10) & 0xffff;
+            this.crc = directory.getInt(header + 16) & ZIP64_MAGIC;
+            this.compressedSize = directory.getInt(header + 20) & ZIP64_MAGIC;
+            this.size = directory.getInt(header + 24) & ZIP64_MAGIC;
+            this.localHeader = directory.getInt(header + 42) & ZIP64_MAGIC;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.workoss.jni;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * StoredJarEntryTest
+ *
+ * @author workoss
+ */
+class StoredJarEntryTest {
+
+    private static final String LIBRARY = "linux-x86_64/libsample.so";
+
+    @TempDir
+    Path dir;
+
+    private final byte[] library = bytes(100_000, 1);
+    private final byte[] other = bytes(5_000, 2);
+
+    @Test
+    void locatesStoredEntryBehindOtherEntries() throws IOException {
+        Path jar = dir.resolve("stored.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.setComment("platform jar");
+            put(out, "META-INF/MANIFEST.MF", other, ZipEntry.DEFLATED);
+            put(out, "linux-x86_64/libother.so", other, ZipEntry.STORED);
+            put(out, LIBRARY, library, ZipEntry.STORED);
+        }
+
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long[] data = StoredJarEntry.locate(channel, LIBRARY);
+            assertNotNull(data);
+            assertEquals(library.length, data[1]);
+            ByteBuffer content = ByteBuffer.allocate(library.length);
+            channel.read(content, data[0]);
+            assertArrayEquals(library, content.array());
+        }
+    }
+
+    @Test
+    void skipsLocalExtraFieldsMissingFromTheCentralDirectory() throws IOException {
+        Path jar = dir.resolve("extra.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            ZipEntry entry = entry(LIBRARY, library, ZipEntry.STORED);
+            // The local header carries all three times, the central directory only the modification time.
+            entry.setLastModifiedTime(FileTime.fromMillis(1_700_000_000_000L));
+            entry.setLastAccessTime(FileTime.fromMillis(1_700_000_100_000L));
+            entry.setCreationTime(FileTime.fromMillis(1_700_000_200_000L));
+            out.putNextEntry(entry);
+            out.write(library);
+            out.closeEntry();
+        }
+
+        Path target = dir.resolve("libsample.so");
+        assertTrue(StoredJarEntry.transfer(jarUrl(jar, LIBRARY), target));
+        assertArrayEquals(library, Files.readAllBytes(target));
+    }
+
+    @Test
+    void leavesDeflatedAndSignedEntriesToTheStream() throws IOException {
+        Path deflated = dir.resolve("deflated.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(deflated))) {
+            put(out, LIBRARY, library, ZipEntry.DEFLATED);
+        }
+        Path signed = dir.resolve("signed.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(signed))) {
+            put(out, "META-INF/SIGNER.SF", other, ZipEntry.DEFLATED);
+            put(out, LIBRARY, library, ZipEntry.STORED);
+        }
+
+        for (Path jar : new Path[]{deflated, signed}) {
+            try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+                assertNull(StoredJarEntry.locate(channel, LIBRARY));
+                assertNull(StoredJarEntry.locate(channel, "linux-x86_64/missing.so"));
+            }
+            Path target = dir.resolve(jar.getFileName() + ".so");
+            assertFalse(StoredJarEntry.transfer(jarUrl(jar, LIBRARY), target));
+            try (URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+                assertTrue(StoredJarEntry.copy(classLoader, LIBRARY, target));
+                assertFalse(StoredJarEntry.copy(classLoader, "linux-x86_64/missing.so", target));
+            }
+            assertArrayEquals(library, Files.readAllBytes(target));
+        }
+    }
+
+    @Test
+    void readsSizeAndCrcFromTheCentralDirectory() throws IOException {
+        Path jar = dir.resolve("crc.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            put(out, "linux-x86_64/libother.so", other, ZipEntry.STORED);
+            put(out, LIBRARY, library, ZipEntry.DEFLATED);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(library);
+
+        assertArrayEquals(new long[]{library.length, crc.getValue()},
+                StoredJarEntry.sizeAndCrc(jarUrl(jar, LIBRARY)));
+        assertNull(StoredJarEntry.sizeAndCrc(jarUrl(jar, "linux-x86_64/missing.so")));
+
+        Path file = dir.resolve("libsample.so");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(library);
+        }
+        assertEquals(crc.getValue(), StoredJarEntry.crc(file));
+        assertArrayEquals(new long[]{library.length, crc.getValue()},
+                StoredJarEntry.sizeAndCrc(file.toUri().toURL()));
+    }
+
+    private static void put(final ZipOutputStream out, final String name, final byte[] content,
+                            final int method) throws IOException {
+        out.putNextEntry(entry(name, content, method));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static ZipEntry entry(final String name, final byte[] content, final int method) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        return entry;
+    }
+
+    private static URL jarUrl(final Path jar, final String entry) throws IOException {
+        return new URL("jar:" + jar.toUri() + "!/" + entry);
+    }
+
+    private static byte[] bytes(final int length, final long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
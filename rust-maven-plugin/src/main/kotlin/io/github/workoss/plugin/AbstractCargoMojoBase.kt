@@ -15,6 +15,7 @@
  */
 package io.github.workoss.plugin
 
+import org.apache.maven.execution.MavenSession
 import org.apache.maven.plugin.AbstractMojo
 import org.apache.maven.plugin.MojoExecutionException
 import org.apache.maven.plugins.annotations.Parameter
@@ -26,6 +27,9 @@ abstract class AbstractCargoMojoBase : AbstractMojo() {
     @Parameter(property = "project", readonly = true)
     protected var project: MavenProject? = null
 
+    @Parameter(defaultValue = "\${session}", readonly = true)
+    protected var session: MavenSession? = null
+
     @Parameter(property = "environmentVariables")
     private val environmentVariables: Map<String, String> = emptyMap()
 
@@ -44,6 +48,39 @@ abstract class AbstractCargoMojoBase : AbstractMojo() {
     @Parameter(property = "release", defaultValue = "false")
     private val release = false
 
+    /**
+     * Named cargo profile to build with, e.g. a custom "perf" profile. Takes precedence over
+     * `release`. Equivalent to Cargo's `--profile` option.
+     */
+    @Parameter(property = "cargo-profile")
+    private val profile: String? = null
+
+    /**
+     * Link-time optimization of the profile: "false", "true"/"fat", "thin" or "off". Passed as
+     * `CARGO_PROFILE_<profile>_LTO`, overriding the crate's `Cargo.toml`.
+     */
+    @Parameter(property = "lto")
+    private val lto: String? = null
+
+    /** Codegen units of the profile. Passed as `CARGO_PROFILE_<profile>_CODEGEN_UNITS`. */
+    @Parameter(property = "codegen-units", defaultValue = "0")
+    private val codegenUnits = 0
+
+    /** Panic strategy of the profile, "unwind" or "abort". */
+    @Parameter(property = "panic")
+    private val panic: String? = null
+
+    /** Optimization level of the profile, "0" to "3", "s" or "z". */
+    @Parameter(property = "opt-level")
+    private val optLevel: String? = null
+
+    /**
+     * CPU to generate code for, e.g. "native" or "x86-64-v3". Passed to rustc as `-Ctarget-cpu`.
+     * Artifacts built this way may not run on older CPUs.
+     */
+    @Parameter(property = "target-cpu")
+    private val targetCpu: String? = null
+
     /**
      * List of features to activate. If not specified, default features are activated. Equivalent to
      * Cargo's `--features` option.
@@ -83,6 +120,74 @@ abstract class AbstractCargoMojoBase : AbstractMojo() {
             }
         }
 
+    /**
+     * Do not log cargo's output while it runs. A one line summary is printed on success and the
+     * last `outputTailLines` lines of output are printed if the command fails.
+     */
+    @Parameter(property = "quiet", defaultValue = "false")
+    private val quiet = false
+
+    /** Number of trailing output lines kept in memory to report a failed cargo command. */
+    @Parameter(property = "output-tail-lines", defaultValue = "200")
+    private val outputTailLines = 200
+
+    /**
+     * Directory where the detected Rust toolchain (versions, host triple, sysroot and installed
+     * targets) is persisted across builds. If unset, the toolchain is detected once per build and
+     * only kept in memory.
+     */
+    @Parameter(property = "toolchain-cache-dir")
+    private val toolchainCacheDir: String? = null
+
+    /**
+     * Resolve the crate's targets through `cargo metadata` instead of reading `Cargo.toml` directly.
+     * This understands inherited workspace fields, auto-discovered targets, `required-features` and
+     * examples, at the cost of one cargo invocation per crate and build.
+     */
+    @Parameter(property = "use-cargo-metadata", defaultValue = "false")
+    private val useCargoMetadata = false
+
+    /** Also build the crate's examples and treat them as artifacts. Equivalent to `--examples`. */
+    @Parameter(property = "examples", defaultValue = "false")
+    private val examples = false
+
+    /**
+     * Names of other shared libraries bundled next to the crate's cdylib that it links against,
+     * recorded as `<lib>.deps` in the native index of the platform JARs (`attachPlatformJars`).
+     * `JniLibLoader.loadLibraryWithDependencies` extracts and loads them first; without this entry
+     * it reads the ELF `DT_NEEDED` entries.
+     */
+    @Parameter(property = "native-dependencies")
+    private val nativeDependencies: Array<String> = emptyArray()
+
+    /**
+     * Share one pool of compile jobs between all cargo processes of the reactor through a GNU make
+     * jobserver. Valid values are "auto" (only when Maven builds modules in parallel, e.g. `-T 1C`),
+     * "true" and "false".
+     */
+    @Parameter(property = "jobserver", defaultValue = "auto")
+    private val jobserver: String = "auto"
+
+    /** Size of the shared job pool. Defaults to the number of available processors. */
+    @Parameter(property = "jobs", defaultValue = "0")
+    private val jobs = 0
+
+    /**
+     * Compiler cache wrapper to run rustc through, e.g. "sccache". Set as `RUSTC_WRAPPER`,
+     * together with `--remap-path-prefix` flags for the reactor root and `CARGO_HOME` so cached
+     * objects do not embed the checkout location. With sccache, the cache hit rate is reported
+     * after each build.
+     *
+     * The flags are passed through `CARGO_ENCODED_RUSTFLAGS`. Unless `RUSTFLAGS` is set, the
+     * `rustflags` of `.cargo/config.toml` are merged into it, since cargo ignores them otherwise.
+     */
+    @Parameter(property = "compiler-cache")
+    private val compilerCache: String? = null
+
+    /** Local directory for the compiler cache, exported as `SCCACHE_DIR` for sccache. */
+    @Parameter(property = "compiler-cache-dir")
+    private val compilerCacheDir: String? = null
+
     /** Additional args to pass to cargo. */
     @Parameter(property = "extra-args")
     private val extraArgs: Array<String> = emptyArray()
@@ -99,6 +204,12 @@ abstract class AbstractCargoMojoBase : AbstractMojo() {
     protected val targetRootDir: Path
         get() = Paths.get(project!!.build.directory, "rust-maven-plugin")
 
+    /** Resolve a path parameter, such as `copyTo`, against the project's base directory. */
+    protected fun resolveAgainstBasedir(path: String): Path {
+        val resolved = Paths.get(path)
+        return if (resolved.isAbsolute) resolved else project!!.basedir.toPath().resolve(resolved)
+    }
+
     @get:Throws(MojoExecutionException::class)
     protected val commonCrateParams: Crate.Params
         get() {
@@ -107,10 +218,54 @@ abstract class AbstractCargoMojoBase : AbstractMojo() {
             params.environmentVariables = environmentVariables
             params.cargoPath = cargoPath
             params.release = release
+            params.profile = profile
+            params.lto = lto
+            params.codegenUnits = if (codegenUnits > 0) codegenUnits else null
+            params.panic = panic
+            params.optLevel = optLevel
+            params.targetCpu = targetCpu
             params.features = features
             params.allFeatures = allFeatures
             params.noDefaultFeatures = noDefaultFeatures
             params.extraArgs = extraArgs
+            params.quiet = quiet
+            params.outputTailLines = outputTailLines
+            params.useCargoMetadata = useCargoMetadata
+            params.examples = examples
+            params.nativeDependencies = nativeDependencies
+            params.jobserver = sharedJobserver()
+            params.compilerCache = compilerCache?.let { wrapper ->
+                CompilerCache(wrapper, compilerCacheDir?.let { Paths.get(it) }, remappedPaths())
+            }
+            if (toolchainCacheDir != null) {
+                params.toolchainCacheDir = resolveAgainstBasedir(toolchainCacheDir)
+            }
             return params
         }
+
+    @Throws(MojoExecutionException::class)
+    private fun sharedJobserver(): Jobserver? {
+        val enabled = when (jobserver) {
+            "auto" -> session?.isParallel ?: false
+            "true" -> true
+            "false" -> false
+            else -> throw MojoExecutionException("Invalid jobserver: $jobserver")
+        }
+        if (!enabled) {
+            return null
+        }
+        val size = if (jobs > 0) jobs else Runtime.getRuntime().availableProcessors()
+        return Jobserver.shared(size, log)
+    }
+
+    /** Checkout specific directories and the stable prefixes they are remapped to. */
+    private fun remappedPaths(): Map<Path, String> {
+        val paths = LinkedHashMap<Path, String>()
+        val root = session?.topLevelProject?.basedir ?: project!!.basedir
+        paths[root.toPath()] = "/workspace"
+        val cargoHome = System.getenv("CARGO_HOME")
+            ?: (System.getProperty("user.home") + "/.cargo")
+        paths[Paths.get(cargoHome)] = "/cargo"
+        return paths
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.attribute.FileTime
+import java.security.MessageDigest
+import java.util.stream.Collectors
+import org.apache.maven.plugin.logging.Log
+
+/**
+ * Local content-addressed store of compiled crate artifacts.
+ *
+ * Each entry is a directory named after the crate's input fingerprint holding the artifacts under
+ * their path relative to the cargo profile directory. The entry's modification time records its
+ * last use and the least recently used entries are evicted once the store exceeds [maxBytes].
+ */
+class ArtifactCache(private val cacheDir: Path, private val maxBytes: Long, private val log: Log) {
+
+  /**
+   * Copy the artifacts of entry [key] to [artifacts] (keys are paths relative to the profile
+   * directory). Returns `false` without touching anything unless every artifact is cached.
+   */
+  fun restore(key: String, artifacts: Map<String, Path>): Boolean {
+    val entry = cacheDir.resolve(key)
+    if (artifacts.isEmpty() || !artifacts.keys.all { Files.isRegularFile(entry.resolve(it)) }) {
+      return false
+    }
+    try {
+      for ((name, path) in artifacts) {
+        Files.createDirectories(path.parent)
+        Files.copy(entry.resolve(name), path, StandardCopyOption.REPLACE_EXISTING)
+      }
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()))
+      return true
+    } catch (e: IOException) {
+      log.warn("Failed to restore $key from the binary cache: ${e.message}")
+      return false
+    }
+  }
+
+  /** Store freshly built [artifacts] as entry [key], then enforce the size limit. */
+  fun store(key: String, artifacts: Map<String, Path>) {
+    val entry = cacheDir.resolve(key)
+    if (artifacts.isEmpty() || Files.isDirectory(entry)) {
+      return
+    }
+    try {
+      Files.createDirectories(cacheDir)
+      val staging = Files.createTempDirectory(cacheDir, ".$key")
+      for ((name, path) in artifacts) {
+        val dest = staging.resolve(name)
+        Files.createDirectories(dest.parent)
+        Files.copy(path, dest, StandardCopyOption.COPY_ATTRIBUTES)
+      }
+      try {
+        Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE)
+      } catch (_: IOException) {
+        // Another build stored the same entry concurrently.
+        delete(staging)
+      }
+      evict()
+    } catch (e: IOException) {
+      log.warn("Failed to store $key in the binary cache: ${e.message}")
+    }
+  }
+
+  @Throws(IOException::class)
+  private fun evict() {
+    val entries =
+        Files.list(cacheDir).use { stream ->
+          stream
+              .filter { Files.isDirectory(it) && !it.fileName.toString().startsWith(".") }
+              .map { Pair(it, Files.getLastModifiedTime(it).toMillis()) }
+              .sorted(compareBy { it.second })
+              .map { it.first }
+              .collect(Collectors.toList())
+        }
+    val sizes = entries.associateWith { size(it) }
+    var total = sizes.values.sum()
+    for (entry in entries) {
+      if (total <= maxBytes) {
+        break
+      }
+      log.debug("Evicting ${entry.fileName} from the binary cache")
+      delete(entry)
+      total -= sizes.getValue(entry)
+    }
+  }
+
+  companion object {
+    /**
+     * Hash of every file under [root], skipping hidden directories, `target` directories and
+     * [exclude]. Combined with [extra] to key a cache entry.
+     */
+    @Throws(IOException::class)
+    fun fingerprint(root: Path, exclude: Path, extra: List<String>): String {
+      val digest = MessageDigest.getInstance("SHA-256")
+      extra.forEach { digest.update((it + "\n").toByteArray(Charsets.UTF_8)) }
+      val files = ArrayList<Path>()
+      Files.walkFileTree(
+          root,
+          object : SimpleFileVisitor<Path>() {
+            override fun preVisitDirectory(
+                dir: Path,
+                attrs: BasicFileAttributes,
+            ): FileVisitResult {
+              val name = dir.fileName?.toString() ?: ""
+              val skip =
+                  dir != root &&
+                      (name.startsWith(".") || name == "target" || dir.startsWith(exclude))
+              return if (skip) FileVisitResult.SKIP_SUBTREE else FileVisitResult.CONTINUE
+            }
+
+            override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
+              if (attrs.isRegularFile) {
+                files.add(file)
+              }
+              return FileVisitResult.CONTINUE
+            }
+          })
+      // Walk order is file system dependent.
+      files.sortBy { root.relativize(it).toString() }
+      val buffer = ByteArray(64 * 1024)
+      for (file in files) {
+        digest.update(root.relativize(file).toString().replace('\\', '/').toByteArray())
+        digest.update(0)
+        Files.newInputStream(file).use { input ->
+          while (true) {
+            val read = input.read(buffer)
+            if (read < 0) {
+              break
+            }
+            digest.update(buffer, 0, read)
+          }
+        }
+      }
+      return digest.digest().joinToString("") { String.format("%02x", it) }
+    }
+
+    private fun size(dir: Path): Long {
+      Files.walk(dir).use { stream ->
+        return stream.filter { Files.isRegularFile(it) }.mapToLong { Files.size(it) }.sum()
+      }
+    }
+
+    private fun delete(dir: Path) {
+      try {
+        Files.walk(dir).use { stream ->
+          stream.sorted(Comparator.reverseOrder()).forEach { Files.deleteIfExists(it) }
+        }
+      } catch (_: IOException) {
+        // A partially deleted entry is incomplete and never restored.
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.TreeMap
+import java.util.stream.Collectors
+
+/**
+ * Benchmark results of one `cargo bench` run, keyed by benchmark name, in nanoseconds per
+ * iteration.
+ *
+ * Results come from libtest's `bench:` lines (including criterion's `--output-format bencher`) and
+ * from the `new/estimates.json` files criterion writes below `CRITERION_HOME`.
+ */
+class Benchmarks {
+  private val results = TreeMap<String, Result>()
+
+  val all: Collection<Result>
+    get() = results.values
+
+  fun isEmpty(): Boolean = results.isEmpty()
+
+  operator fun get(name: String): Result? = results[name]
+
+  /** Parse a libtest bench line such as `test parse ... bench: 1,234 ns/iter (+/- 56)`. */
+  fun parseLine(line: String) {
+    val match = LIBTEST.find(line) ?: return
+    val nanos = number(match.groupValues[2]) ?: return
+    val name = match.groupValues[1]
+    results[name] = Result(name, nanos, number(match.groupValues[3]))
+  }
+
+  /** Add the mean of every criterion estimate under [criterionHome] written since [sinceMillis]. */
+  @Throws(IOException::class)
+  fun readCriterion(criterionHome: Path, sinceMillis: Long) {
+    if (!Files.isDirectory(criterionHome)) {
+      return
+    }
+    val estimates =
+        Files.walk(criterionHome).use { stream ->
+          stream
+              .filter { it.fileName.toString() == "estimates.json" }
+              .filter { it.parent.fileName.toString() == "new" }
+              .filter { Files.getLastModifiedTime(it).toMillis() >= sinceMillis }
+              .collect(Collectors.toList())
+        }
+    for (file in estimates) {
+      val mean = read(file).getAsJsonObject("mean") ?: continue
+      val benchmarkFile = file.resolveSibling("benchmark.json")
+      val name =
+          if (Files.isRegularFile(benchmarkFile)) {
+            read(benchmarkFile).get("full_id").asString
+          } else {
+            criterionHome.relativize(file.parent.parent).toString().replace('\\', '/')
+          }
+      val deviation = mean.getAsJsonObject("standard_error")?.get("point_estimate")?.asDouble
+      results[name] = Result(name, mean.get("point_estimate").asDouble, deviation)
+    }
+  }
+
+  /** Benchmarks slower than in [baseline] by more than [thresholdPercent]. */
+  fun regressions(baseline: Benchmarks, thresholdPercent: Double): List<String> {
+    val regressions = ArrayList<String>()
+    for (result in results.values) {
+      val previous = baseline[result.name] ?: continue
+      val change = (result.nanos - previous.nanos) * 100.0 / previous.nanos
+      if (change > thresholdPercent) {
+        regressions.add(
+            String.format(
+                "%s: %.1f ns/iter -> %.1f ns/iter (+%.1f%%)",
+                result.name,
+                previous.nanos,
+                result.nanos,
+                change))
+      }
+    }
+    return regressions
+  }
+
+  @Throws(IOException::class)
+  fun writeJson(file: Path) {
+    Files.createDirectories(file.toAbsolutePath().parent)
+    val json = GsonBuilder().setPrettyPrinting().create().toJson(results.values)
+    Files.write(file, json.toByteArray(Charsets.UTF_8))
+  }
+
+  @Throws(IOException::class)
+  fun writeCsv(file: Path) {
+    Files.createDirectories(file.toAbsolutePath().parent)
+    val lines = ArrayList<String>()
+    lines.add("name,nanos,deviation")
+    for (result in results.values) {
+      val name = "\"" + result.name.replace("\"", "\"\"") + "\""
+      lines.add("$name,${result.nanos},${result.deviation ?: ""}")
+    }
+    Files.write(file, lines)
+  }
+
+  class Result(val name: String, val nanos: Double, val deviation: Double?)
+
+  companion object {
+    private val LIBTEST =
+        Regex("""^test (\S+)\s+\.\.\. bench:\s+([\d,.]+) ns/iter(?: \(\+/- ([\d,.]+)\))?""")
+
+    /** Read results written by [writeJson]. */
+    @Throws(IOException::class)
+    fun readJson(file: Path): Benchmarks {
+      val benchmarks = Benchmarks()
+      val json = String(Files.readAllBytes(file), Charsets.UTF_8)
+      for (element in JsonParser.parseString(json).asJsonArray) {
+        val result = element.asJsonObject
+        val name = result.get("name").asString
+        val deviation = result.get("deviation")?.takeUnless { it.isJsonNull }?.asDouble
+        benchmarks.results[name] = Result(name, result.get("nanos").asDouble, deviation)
+      }
+      return benchmarks
+    }
+
+    private fun number(value: String): Double? = value.replace(",", "").toDoubleOrNull()
+
+    @Throws(IOException::class)
+    private fun read(file: Path): JsonObject =
+        JsonParser.parseString(String(Files.readAllBytes(file), Charsets.UTF_8)).asJsonObject
+  }
+}
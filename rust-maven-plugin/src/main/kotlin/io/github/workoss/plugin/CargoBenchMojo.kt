@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+
+/**
+ * Runs `cargo bench` and writes the results to `target/rust-maven-plugin/bench/<crate>.json` and
+ * `.csv`. Both libtest benchmarks and criterion benchmarks are supported.
+ *
+ * The results are compared to a baseline, and the build fails if any benchmark is slower by more
+ * than `threshold` percent. Run once with `-Dbench.updateBaseline` to record the baseline.
+ */
+@Suppress("unused")
+@Mojo(name = "bench", defaultPhase = LifecyclePhase.VERIFY, threadSafe = true)
+class CargoBenchMojo : AbstractCargoMojoBase() {
+  /** Skips running benchmarks. */
+  @Parameter(property = "bench.skip", defaultValue = "false") private val skip = false
+
+  /** Arguments passed to the bench harness after `--`, e.g. a filter. */
+  @Parameter(property = "bench.args") private val benchArgs: Array<String> = emptyArray()
+
+  /**
+   * Baseline results, as written to the JSON report. Defaults to `src/bench/<crate>.json`, a
+   * location meant to be committed.
+   */
+  @Parameter(property = "bench.baseline") private val baseline: String? = null
+
+  /** Maximum slowdown, in percent, before a benchmark counts as a regression. */
+  @Parameter(property = "bench.threshold", defaultValue = "10")
+  private val threshold = 10.0
+
+  /** Replace the baseline with the results of this run instead of comparing against it. */
+  @Parameter(property = "bench.updateBaseline", defaultValue = "false")
+  private val updateBaseline = false
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    if (skip) {
+      log.info("Skipping benchmarks")
+      return
+    }
+    val crateName = crateRoot.fileName.toString()
+    val benchDir = targetRootDir.resolve("bench")
+    val criterionHome = benchDir.resolve("criterion").resolve(crateName)
+    val params = commonCrateParams
+    // Criterion ignores `--target-dir`.
+    params.cargoEnvironment =
+        params.cargoEnvironment + ("CRITERION_HOME" to criterionHome.toAbsolutePath().toString())
+    val crate = Crate(crateRoot, targetRootDir, params)
+    crate.setLog(log)
+
+    val results = Benchmarks()
+    // Criterion's file times have a coarse resolution on some file systems.
+    val start = System.currentTimeMillis() / 1000 * 1000
+    crate.bench(benchArgs.toList()) {
+      results.parseLine(it)
+      true
+    }
+    try {
+      results.readCriterion(criterionHome, start)
+      results.writeJson(benchDir.resolve("$crateName.json"))
+      results.writeCsv(benchDir.resolve("$crateName.csv"))
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to write the benchmark report: ${e.message}", e)
+    }
+    if (results.isEmpty()) {
+      log.warn("No benchmark results found for $crateName")
+      return
+    }
+    log.info("Benchmark report written to ${benchDir.resolve("$crateName.json")}")
+
+    val baselineFile = baselineFile(crateName)
+    if (updateBaseline) {
+      try {
+        results.writeJson(baselineFile)
+      } catch (e: IOException) {
+        throw MojoExecutionException("Failed to write $baselineFile: ${e.message}", e)
+      }
+      log.info("Benchmark baseline updated: $baselineFile")
+      return
+    }
+    if (!Files.isRegularFile(baselineFile)) {
+      log.info("No benchmark baseline at $baselineFile, record one with -Dbench.updateBaseline")
+      return
+    }
+    val previous =
+        try {
+          Benchmarks.readJson(baselineFile)
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to read $baselineFile: ${e.message}", e)
+        }
+    val regressions = results.regressions(previous, threshold)
+    if (regressions.isNotEmpty()) {
+      regressions.forEach { log.error(it) }
+      throw MojoFailureException(
+          "${regressions.size} benchmark(s) regressed by more than $threshold% " +
+              "against $baselineFile")
+    }
+    log.info("No benchmark regressed by more than $threshold% against $baselineFile")
+  }
+
+  private fun baselineFile(crateName: String): Path {
+    return resolveAgainstBasedir(baseline ?: "src/bench/$crateName.json")
+  }
+}
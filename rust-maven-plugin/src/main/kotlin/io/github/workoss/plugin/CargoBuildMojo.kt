@@ -15,17 +15,23 @@
  */
 package io.github.workoss.plugin
 
+import java.io.IOException
 import java.nio.file.Paths
+import java.time.OffsetDateTime
+import java.time.format.DateTimeParseException
+import javax.inject.Inject
 import org.apache.maven.plugin.MojoExecutionException
 import org.apache.maven.plugin.MojoFailureException
 import org.apache.maven.plugins.annotations.LifecyclePhase
 import org.apache.maven.plugins.annotations.Mojo
 import org.apache.maven.plugins.annotations.Parameter
+import org.apache.maven.project.MavenProjectHelper
 
 /** An example of a Maven plugin. */
 @Suppress("unused")
 @Mojo(name = "build", defaultPhase = LifecyclePhase.COMPILE, threadSafe = true)
-class CargoBuildMojo : AbstractCargoMojoBase() {
+class CargoBuildMojo @Inject constructor(private val projectHelper: MavenProjectHelper) :
+    AbstractCargoMojoBase() {
   /**
    * Location to copy the built Rust binaries to. If unset, the binaries are not copied and remain
    * in the target directory.
@@ -42,25 +48,190 @@ class CargoBuildMojo : AbstractCargoMojoBase() {
    */
   @Parameter(property = "copyWithPlatformDir") private val copyWithPlatformDir = false
 
+  /**
+   * Rust target triples to cross-compile for, e.g. `x86_64-unknown-linux-gnu`,
+   * `aarch64-unknown-linux-gnu` or `x86_64-unknown-linux-musl`. Each triple is built in parallel
+   * with `cargo build --target <triple>` and copied into the `io.github.workoss.jni.OS` platform
+   * directory or file name `JniLibLoader` resolves on that platform; musl triples use a `-musl`
+   * suffix. If unset, only the host is built.
+   */
+  @Parameter(property = "targets") private val targets: Array<String> = emptyArray()
+
+  /**
+   * CPU-tuned builds of the crate, e.g. a baseline and an `x86-64-v3` variant. Each variant is
+   * built in parallel with its own `-Ctarget-cpu`/`-Ctarget-feature` flags and target directory,
+   * and copied into a `copyTo` subdirectory named after it, which the runtime selects by passing
+   * the name as `JniLibLoader.loadLibrary`'s `prefix`. Combines with `targets`.
+   *
+   * ```
+   * <variants>
+   *   <variant><name>baseline</name></variant>
+   *   <variant><name>x86-64-v3</name><targetCpu>x86-64-v3</targetCpu></variant>
+   * </variants>
+   * ```
+   */
+  @Parameter private val variants: Array<Variant> = emptyArray()
+
+  /**
+   * Reuse artifacts from a local content-addressed cache when the crate's sources, `Cargo.lock`,
+   * toolchain, target and cargo arguments match an earlier build, e.g. after `mvn clean`. Changes
+   * to path dependencies outside the crate directory are not tracked.
+   */
+  @Parameter(property = "binaryCache", defaultValue = "false") private val binaryCache = false
+
+  /** Directory of the binary cache. */
+  @Parameter(property = "binaryCacheDir", defaultValue = "\${user.home}/.m2/rust-maven-cache")
+  private val binaryCacheDir: String = ""
+
+  /** Maximum size of the binary cache in megabytes. Least recently used entries are evicted. */
+  @Parameter(property = "binaryCacheMaxSize", defaultValue = "2048")
+  private val binaryCacheMaxSize = 2048L
+
+  /**
+   * Strip the debug information of the copied artifacts and keep it under
+   * `target/rust-maven-plugin/debuginfo` instead: split `.debug` files with a `.gnu_debuglink` on
+   * ELF platforms, `.dSYM` bundles on macOS and the `.pdb` files of the MSVC toolchain. The cargo
+   * outputs themselves are left untouched.
+   */
+  @Parameter(property = "stripDebugInfo", defaultValue = "false")
+  private val stripDebugInfo = false
+
+  /**
+   * `objcopy` used to split ELF debug information. Cross-compiled targets may need
+   * `llvm-objcopy` or the target's binutils.
+   */
+  @Parameter(property = "objcopy", defaultValue = "objcopy") private val objcopy: String = ""
+
+  /**
+   * Attach the stripped debug information as one zip per platform, classified
+   * `debuginfo-<os>-<arch>`, so it is deployed next to the project's artifact.
+   */
+  @Parameter(property = "attachDebugInfo", defaultValue = "true")
+  private val attachDebugInfo = true
+
+  /**
+   * Attach the copied libraries as one JAR per platform, classified like
+   * `io.github.workoss.jni.OS.classifier` (e.g. `linux-x86_64`), together with the index
+   * `JniLibLoader` resolves them through. Consumers can then depend on the platforms they run on
+   * only. If `copyTo` is unset, the libraries are staged under `target/rust-maven-plugin/native`
+   * instead of being added to the project's own JAR.
+   */
+  @Parameter(property = "attachPlatformJars", defaultValue = "false")
+  private val attachPlatformJars = false
+
+  /**
+   * Store the libraries of the platform JARs uncompressed, so `JniLibLoader` extracts them with a
+   * kernel file copy instead of inflating them. Makes the JARs larger.
+   *
+   * Only applies with [attachPlatformJars]. Libraries copied to `copyTo` are packaged by the
+   * maven-jar-plugin, which deflates them, so they keep the inflating extraction unless that
+   * plugin is configured with `<archive><compress>false</compress></archive>`.
+   */
+  @Parameter(property = "storePlatformJars", defaultValue = "false")
+  private val storePlatformJars = false
+
+  /**
+   * Entry time of the platform JARs, as ISO-8601 or seconds since the epoch. Defaults to a fixed
+   * date so the JARs are reproducible.
+   */
+  @Parameter(defaultValue = "\${project.build.outputTimestamp}")
+  private val outputTimestamp: String? = null
+
   @Throws(MojoExecutionException::class, MojoFailureException::class)
   override fun execute() {
-    val crate = Crate(crateRoot, targetRootDir, extractCrateParams())
+    val params = extractCrateParams()
+    val triples = targets.map { it.trim() }.filter { it.isNotEmpty() }.distinct()
+    if (variants.map { it.name }.distinct().size != variants.size) {
+      throw MojoExecutionException("Variant names must be unique")
+    }
+    val matrix = ArrayList<Crate.Params>()
+    for (variant in variants.toList<Variant?>().ifEmpty { listOf(null) }) {
+      for (triple in triples.ifEmpty { listOf(null) }) {
+        val buildParams = params.copy()
+        buildParams.target = triple
+        variant?.apply(buildParams)
+        matrix.add(buildParams)
+      }
+    }
+    Parallel.map(matrix, matrix.size) { build(it) }
+    val project = project!!
+    val copyRoot = params.copyToDir
+    if (attachPlatformJars && copyRoot != null) {
+      val jars =
+          try {
+            NativeIndex.packagePlatformJars(
+                copyRoot,
+                targetRootDir,
+                project.build.finalName,
+                storePlatformJars,
+                outputTimestampMillis())
+          } catch (e: IOException) {
+            throw MojoExecutionException("Failed to package platform jars: ${e.message}", e)
+          }
+      for ((platform, jar) in jars) {
+        projectHelper.attachArtifact(project, "jar", platform, jar.toFile())
+        log.info("Attached $platform native libraries")
+      }
+    }
+    val debugInfo = params.debugInfo
+    if (debugInfo != null && attachDebugInfo) {
+      for ((platform, zip) in debugInfo.archive(targetRootDir, project.build.finalName)) {
+        projectHelper.attachArtifact(project, "zip", "debuginfo-$platform", zip.toFile())
+        log.info("Attached debug information for $platform")
+      }
+    }
+  }
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  private fun build(params: Crate.Params) {
+    val crate = Crate(crateRoot, targetRootDir, params)
     crate.setLog(log)
-    crate.build()
+    val cache = params.artifactCache
+    // Keyed before the build, which may touch the inputs, e.g. through build.rs.
+    val key = cache?.let { crate.fingerprint() }
+    if (cache == null || key == null || !crate.restoreArtifacts(cache, key)) {
+      crate.build()
+      if (cache != null && key != null) {
+        crate.storeArtifacts(cache, key)
+      }
+    }
     crate.copyArtifacts()
   }
 
   @Throws(MojoExecutionException::class)
   private fun extractCrateParams(): Crate.Params {
     val params = commonCrateParams
-    if (copyTo != null) {
-      var copyToDir = Paths.get(copyTo)
-      if (!copyToDir.isAbsolute) {
-        copyToDir = project!!.basedir.toPath().resolve(copyToDir)
-      }
-      params.copyToDir = copyToDir
-    }
+    params.copyToDir =
+        copyTo?.let { resolveAgainstBasedir(it) }
+            ?: if (attachPlatformJars) targetRootDir.resolve("native") else null
     params.copyWithPlatformDir = copyWithPlatformDir
+    // The index only feeds the platform JARs, and copyTo is often a source directory.
+    params.nativeIndex = attachPlatformJars
+    if (stripDebugInfo) {
+      params.debugInfo = DebugInfo(objcopy, targetRootDir.resolve("debuginfo"), log)
+    }
+    if (binaryCache) {
+      params.artifactCache =
+          ArtifactCache(Paths.get(binaryCacheDir), binaryCacheMaxSize * 1024 * 1024, log)
+    }
     return params
   }
+
+  /** `outputTimestamp` in milliseconds, like maven-archiver a single character disables it. */
+  @Throws(MojoExecutionException::class)
+  private fun outputTimestampMillis(): Long {
+    val value = outputTimestamp?.trim() ?: return NativeIndex.DEFAULT_TIMESTAMP
+    if (value.length < 2) {
+      return NativeIndex.DEFAULT_TIMESTAMP
+    }
+    return try {
+      if (value.all { it.isDigit() }) {
+        value.toLong() * 1000
+      } else {
+        OffsetDateTime.parse(value).toInstant().toEpochMilli()
+      }
+    } catch (e: DateTimeParseException) {
+      throw MojoExecutionException("Invalid outputTimestamp: $value", e)
+    }
+  }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Path
+import javax.inject.Inject
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.codehaus.plexus.util.DirectoryScanner
+import org.sonatype.plexus.build.incremental.BuildContext
+
+/**
+ * Type-checks the crate with `cargo check`, which is much faster than a full build.
+ *
+ * rustc's errors and warnings are reported through the Plexus `BuildContext`, so IDEs such as m2e
+ * show them as markers on the Rust sources. In incremental IDE builds the goal only runs when a
+ * `.rs`, `Cargo.toml` or `Cargo.lock` file of the crate changed.
+ */
+@Suppress("unused")
+@Mojo(name = "check", defaultPhase = LifecyclePhase.VALIDATE, threadSafe = true)
+class CargoCheckMojo @Inject constructor(private val buildContext: BuildContext) :
+    AbstractCargoMojoBase() {
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    val scanner = buildContext.newScanner(crateRoot.toFile())
+    scanner.setIncludes(INCLUDES)
+    scanner.setExcludes(EXCLUDES)
+    scanner.scan()
+    if (buildContext.isIncremental && scanner.includedFiles.isEmpty()) {
+      log.debug("No Rust sources changed in $crateRoot, skipping cargo check")
+      return
+    }
+    // cargo check reports the whole crate, and fixing one file can resolve problems in another.
+    val sources = DirectoryScanner()
+    sources.basedir = crateRoot.toFile()
+    sources.setIncludes(INCLUDES)
+    sources.setExcludes(EXCLUDES)
+    sources.scan()
+    sources.includedFiles.forEach { buildContext.removeMessages(crateRoot.resolve(it).toFile()) }
+
+    val crate = Crate(crateRoot, targetRootDir, commonCrateParams)
+    crate.setLog(log)
+    var errors = 0
+    try {
+      crate.check { line ->
+        if (!line.startsWith("{")) {
+          return@check true
+        }
+        val message = parse(line)
+        if (message?.get("reason")?.asString == "compiler-message") {
+          if (report(buildContext, message.getAsJsonObject("message"))) {
+            errors++
+          }
+        }
+        false
+      }
+    } catch (e: MojoExecutionException) {
+      if (errors > 0) {
+        throw MojoFailureException("cargo check reported $errors errors in $crateRoot", e)
+      }
+      throw e
+    }
+  }
+
+  /** Report one rustc diagnostic and return whether it is an error. */
+  private fun report(buildContext: BuildContext, diagnostic: JsonObject): Boolean {
+    val level = diagnostic.get("level").asString
+    val severity =
+        when (level) {
+          "error",
+          "error: internal compiler error" -> BuildContext.SEVERITY_ERROR
+          "warning" -> BuildContext.SEVERITY_WARNING
+          else -> return false
+        }
+    val rendered = diagnostic.get("rendered")?.takeUnless { it.isJsonNull }?.asString
+    val span =
+        diagnostic.getAsJsonArray("spans").map { it.asJsonObject }.firstOrNull {
+          it.get("is_primary").asBoolean
+        }
+    val file = span?.let { sourceFile(it.get("file_name").asString) }
+    if (span != null && file != null) {
+      // The build context logs the message itself outside of IDEs.
+      rendered?.let { log.debug(it.trimEnd()) }
+      buildContext.addMessage(
+          file,
+          span.get("line_start").asInt,
+          span.get("column_start").asInt,
+          diagnostic.get("message").asString,
+          severity,
+          null)
+    } else {
+      val text = (rendered ?: diagnostic.get("message").asString).trimEnd()
+      if (severity == BuildContext.SEVERITY_ERROR) log.error(text) else log.warn(text)
+    }
+    return severity == BuildContext.SEVERITY_ERROR
+  }
+
+  /**
+   * rustc reports paths relative to the workspace root, which may be a parent of the crate.
+   * Sources outside the workspace, e.g. in the registry, are absolute.
+   */
+  private fun sourceFile(fileName: String): File? {
+    var dir: Path? = crateRoot.toAbsolutePath()
+    while (dir != null) {
+      val file = dir.resolve(fileName)
+      if (Files.isRegularFile(file)) {
+        return file.toFile()
+      }
+      dir = dir.parent
+    }
+    return null
+  }
+
+  private fun parse(line: String): JsonObject? {
+    return try {
+      JsonParser.parseString(line).asJsonObject
+    } catch (_: RuntimeException) {
+      null
+    }
+  }
+
+  companion object {
+    private val INCLUDES = arrayOf("**/*.rs", "**/Cargo.toml", "**/Cargo.lock")
+    private val EXCLUDES = arrayOf("target/**")
+  }
+}
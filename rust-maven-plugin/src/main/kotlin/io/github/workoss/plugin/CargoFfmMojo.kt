@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+
+/**
+ * Builds the crate and generates Java Foreign Function & Memory API bindings from the C header
+ * cbindgen produced for it, typically from the crate's `build.rs`.
+ *
+ * The generated class has one `public static` method per exported function, backed by a
+ * `static final` downcall `MethodHandle`. It loads the library with `JniLibLoader`, so it needs
+ * the `jni` artifact and Java 22 or later at compile and run time, and finds the symbols with
+ * `SymbolLookup.loaderLookup()`, so `JniLibLoader` must be loaded by the same class loader. The
+ * output directory is added as a compile source root.
+ */
+@Suppress("unused")
+@Mojo(name = "ffm", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+class CargoFfmMojo : AbstractCargoMojoBase() {
+  /** See `build`'s `copyTo`. */
+  @Parameter(property = "copyTo") private val copyTo: String? = null
+
+  /** See `build`'s `copyWithPlatformDir`. Also passed to `JniLibLoader` by the bindings. */
+  @Parameter(property = "copyWithPlatformDir") private val copyWithPlatformDir = false
+
+  /** The cbindgen header, relative to the project's base directory. Read after the build. */
+  @Parameter(property = "ffm.header", required = true) private val header: String = ""
+
+  /** Package of the generated class. */
+  @Parameter(property = "ffm.packageName", required = true) private val packageName: String = ""
+
+  /** Simple name of the generated class. Defaults to the camel-cased library name. */
+  @Parameter(property = "ffm.className") private val className: String? = null
+
+  @Parameter(
+      property = "ffm.outputDirectory",
+      defaultValue = "\${project.build.directory}/generated-sources/rust-ffm")
+  private val outputDirectory: String = ""
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    val params = commonCrateParams
+    params.copyToDir = copyTo?.let { resolveAgainstBasedir(it) }
+    params.copyWithPlatformDir = copyWithPlatformDir
+    val crate = Crate(crateRoot, targetRootDir, params)
+    crate.setLog(log)
+    crate.build()
+    crate.copyArtifacts()
+
+    val libName =
+        crate.libName
+            ?: throw MojoExecutionException("Crate $crateRoot has no `cdylib` target to bind")
+    val headerPath = resolveAgainstBasedir(header)
+    val source =
+        try {
+          String(Files.readAllBytes(headerPath), StandardCharsets.UTF_8)
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to read $headerPath: ${e.message}", e)
+        }
+    val name = className ?: FfmBindings.className(libName)
+    val bindings = FfmBindings(packageName, name, libName, copyWithPlatformDir)
+    val java = bindings.generate(source, headerPath.fileName.toString()) { log.warn(it) }
+
+    val outputRoot = resolveAgainstBasedir(outputDirectory)
+    val outputFile = outputRoot.resolve(packageName.replace('.', '/')).resolve("$name.java")
+    val bytes = java.toByteArray(StandardCharsets.UTF_8)
+    try {
+      // Leave unchanged sources alone so the compiler can skip them.
+      val unchanged =
+          Files.isRegularFile(outputFile) && Files.readAllBytes(outputFile).contentEquals(bytes)
+      if (!unchanged) {
+        Files.createDirectories(outputFile.parent)
+        Files.write(outputFile, bytes)
+        log.info("Generated FFM bindings $outputFile")
+      }
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to write $outputFile: ${e.message}", e)
+    }
+    project!!.addCompileSourceRoot(outputRoot.toString())
+  }
+}
@@ -16,37 +16,32 @@
 package io.github.workoss.plugin
 
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 import org.apache.maven.plugin.MojoExecutionException
 
 class CargoInstalledChecker private constructor() {
-  private val cache = HashMap<String, InstalledState>()
+  private val cache = ConcurrentHashMap<String, Probe>()
 
-  @Synchronized
   @Throws(MojoExecutionException::class)
   fun check(cargoPath: String) {
+    version(cargoPath)
+  }
 
-    var cached = cache.getOrDefault(cargoPath, InstalledState.UNKNOWN)
-
-    if (cached == InstalledState.UNKNOWN) {
-      try {
-        val pb = ProcessBuilder(cargoPath, "--version")
-        val p = pb.start()
-        val exitCode = p.waitFor()
-        cached = if (exitCode == 0) InstalledState.INSTALLED else InstalledState.BROKEN
-        cache[cargoPath] = cached
-      } catch (_: Exception) {
-        cached = InstalledState.NOT_INSTALLED
-        cache[cargoPath] = cached
-      }
-    }
+  /**
+   * Returns the output of `cargo --version`. The command is run at most once per `cargoPath` for
+   * the whole reactor, so this doubles as a cheap preflight check before every cargo invocation.
+   */
+  @Throws(MojoExecutionException::class)
+  fun version(cargoPath: String): String {
+    val probe = cache.computeIfAbsent(cargoPath, ::probe)
 
-    if (cached == InstalledState.INSTALLED) {
-      return
+    if (probe.state == InstalledState.INSTALLED) {
+      return probe.version!!
     }
 
     val error = StringBuilder()
 
-    if (cached == InstalledState.BROKEN) {
+    if (probe.state == InstalledState.BROKEN) {
       if (cargoPath == "cargo") {
         error.append("Rust's `cargo` ")
       } else {
@@ -54,7 +49,7 @@ class CargoInstalledChecker private constructor() {
       }
       error.append(
           " is a broken install: Running `cargo --version` " + "returned non-zero exit code")
-    } else { // cached == InstalledState.NOT_INSTALLED
+    } else { // probe.state == InstalledState.NOT_INSTALLED
       if (cargoPath == "cargo") {
         error
             .append("Rust's `cargo` not found in PATH=")
@@ -67,8 +62,23 @@ class CargoInstalledChecker private constructor() {
     throw MojoExecutionException(error.toString())
   }
 
+  private fun probe(cargoPath: String): Probe {
+    return try {
+      val pb = ProcessBuilder(cargoPath, "--version")
+      pb.redirectErrorStream(true)
+      val p = pb.start()
+      val version = p.inputStream.bufferedReader().use { it.readText() }.trim()
+      val exitCode = p.waitFor()
+      if (exitCode == 0) Probe(InstalledState.INSTALLED, version)
+      else Probe(InstalledState.BROKEN, null)
+    } catch (_: Exception) {
+      Probe(InstalledState.NOT_INSTALLED, null)
+    }
+  }
+
+  private class Probe(val state: InstalledState, val version: String?)
+
   private enum class InstalledState {
-    UNKNOWN,
     NOT_INSTALLED,
     INSTALLED,
     BROKEN
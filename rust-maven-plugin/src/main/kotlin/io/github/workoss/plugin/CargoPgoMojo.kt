@@ -0,0 +1,211 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.stream.Collectors
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+import org.apache.maven.plugins.annotations.ResolutionScope
+
+/**
+ * Profile-guided optimization of the crate.
+ *
+ * Builds the crate with `-Cprofile-generate` and copies the instrumented artifacts to `copyTo`,
+ * runs a Java workload that loads them through `JniLibLoader`, merges the collected `.profraw`
+ * files with `llvm-profdata` and finally rebuilds with `-Cprofile-use`, replacing the
+ * instrumented artifacts with the optimized ones.
+ */
+@Suppress("unused")
+@Mojo(
+    name = "pgo",
+    defaultPhase = LifecyclePhase.PROCESS_TEST_CLASSES,
+    threadSafe = true,
+    requiresDependencyResolution = ResolutionScope.TEST)
+class CargoPgoMojo : AbstractCargoMojoBase() {
+  /**
+   * Location to copy the built Rust binaries to. It must be on the workload's classpath, e.g.
+   * `target/classes`, so that the workload loads the instrumented library.
+   */
+  @Parameter(property = "copyTo", required = true) private val copyTo: String = ""
+
+  /** See `build`'s `copyWithPlatformDir`. */
+  @Parameter(property = "copyWithPlatformDir") private val copyWithPlatformDir = false
+
+  /**
+   * Main class of the training workload, run with the module's test classpath. To train on the
+   * module's JUnit tests, use `org.junit.platform.console.ConsoleLauncher` with `--scan-classpath`
+   * as `workloadArgs`.
+   */
+  @Parameter(property = "pgo.workloadMainClass") private val workloadMainClass: String? = null
+
+  /** Arguments of `workloadMainClass`. */
+  @Parameter(property = "pgo.workloadArgs") private val workloadArgs: Array<String> = emptyArray()
+
+  /** JVM options of the workload. */
+  @Parameter(property = "pgo.jvmArgs") private val jvmArgs: Array<String> = emptyArray()
+
+  /** Arbitrary training command, used instead of `workloadMainClass`. */
+  @Parameter(property = "pgo.workloadCommand")
+  private val workloadCommand: Array<String> = emptyArray()
+
+  /**
+   * Path to `llvm-profdata`. Defaults to the one of the `llvm-tools` rustup component, falling back
+   * to `llvm-profdata` on the `PATH`. Its LLVM version must match rustc's.
+   */
+  @Parameter(property = "pgo.llvmProfdata") private val llvmProfdata: String? = null
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    val pgoDir = targetRootDir.resolve("pgo").resolve(crateRoot.fileName.toString())
+    val profilesDir = pgoDir.resolve("profiles")
+    val mergedProfile = pgoDir.resolve("merged.profdata")
+    try {
+      if (Files.exists(profilesDir)) {
+        Files.walk(profilesDir).use { stream ->
+          stream.sorted(Comparator.reverseOrder()).forEach { Files.delete(it) }
+        }
+      }
+      Files.createDirectories(profilesDir)
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to prepare $profilesDir: ${e.message}", e)
+    }
+
+    log.info("PGO: building instrumented artifacts")
+    val instrumented = crate("pgo-generate", "-Cprofile-generate=${profilesDir.toAbsolutePath()}")
+    instrumented.build()
+    instrumented.copyArtifacts()
+
+    log.info("PGO: running the training workload")
+    runWorkload(profilesDir)
+
+    log.info("PGO: merging profiles into $mergedProfile")
+    mergeProfiles(instrumented.toolchain, profilesDir, mergedProfile)
+
+    log.info("PGO: building optimized artifacts")
+    val optimized =
+        crate(
+            "pgo-use",
+            "-Cprofile-use=${mergedProfile.toAbsolutePath()}",
+            "-Cllvm-args=-pgo-warn-missing-function")
+    optimized.build()
+    optimized.copyArtifacts()
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun crate(subdir: String, vararg rustFlags: String): Crate {
+    val params = commonCrateParams
+    params.copyToDir = resolveAgainstBasedir(copyTo)
+    params.copyWithPlatformDir = copyWithPlatformDir
+    params.targetSubdir = subdir
+    params.rustFlags = params.rustFlags + rustFlags
+    val crate = Crate(crateRoot, targetRootDir, params)
+    crate.setLog(log)
+    return crate
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun runWorkload(profilesDir: Path) {
+    val command = ArrayList<String>()
+    if (workloadCommand.isNotEmpty()) {
+      command.addAll(workloadCommand)
+    } else if (workloadMainClass != null) {
+      val java = Paths.get(System.getProperty("java.home"), "bin", "java").toString()
+      command.add(java)
+      command.addAll(jvmArgs)
+      command.add("-cp")
+      command.add(project!!.testClasspathElements.joinToString(File.pathSeparator))
+      command.add(workloadMainClass)
+      command.addAll(workloadArgs)
+    } else {
+      throw MojoExecutionException("PGO needs either `workloadMainClass` or `workloadCommand`")
+    }
+    val profileFile = profilesDir.resolve("%p-%m.profraw").toAbsolutePath().toString()
+    val environment = mapOf("LLVM_PROFILE_FILE" to profileFile)
+    run(command, environment, "Training workload")
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun mergeProfiles(toolchain: Toolchain, profilesDir: Path, mergedProfile: Path) {
+    val profiles =
+        try {
+          Files.list(profilesDir).use { stream ->
+            stream
+                .filter { it.fileName.toString().endsWith(".profraw") }
+                .map { it.toAbsolutePath().toString() }
+                .collect(Collectors.toList())
+          }
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to list $profilesDir: ${e.message}", e)
+        }
+    if (profiles.isEmpty()) {
+      throw MojoFailureException(
+          "The training workload produced no profiles in $profilesDir. " +
+              "Does it load the instrumented library?")
+    }
+    val command = ArrayList<String>()
+    command.add(llvmProfdata ?: bundledLlvmProfdata(toolchain) ?: "llvm-profdata")
+    command.add("merge")
+    command.add("-o")
+    command.add(mergedProfile.toAbsolutePath().toString())
+    command.addAll(profiles)
+    run(command, emptyMap(), "llvm-profdata")
+  }
+
+  /** `llvm-profdata` from the `llvm-tools` component of the crate's toolchain, if installed. */
+  private fun bundledLlvmProfdata(toolchain: Toolchain): String? {
+    val name = if (toolchain.host.contains("windows")) "llvm-profdata.exe" else "llvm-profdata"
+    val path =
+        toolchain.sysroot
+            .resolve("lib")
+            .resolve("rustlib")
+            .resolve(toolchain.host)
+            .resolve("bin")
+            .resolve(name)
+    return if (Files.isExecutable(path)) path.toString() else null
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun run(command: List<String>, environment: Map<String, String>, what: String) {
+    log.info("Running: " + Shlex.quote(command))
+    val processBuilder = ProcessBuilder(command)
+    processBuilder.redirectErrorStream(true)
+    processBuilder.environment().putAll(environment)
+    processBuilder.directory(project!!.basedir)
+    val pump = ProcessPump(log, false, 1)
+    try {
+      val process = processBuilder.start()
+      val output = pump.start(process.inputStream)
+      val exitCode = process.waitFor()
+      pump.join(output)
+      if (exitCode != 0) {
+        throw MojoFailureException("$what failed with exit code $exitCode")
+      }
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to run $what: ${e.message}", e)
+    } catch (e: InterruptedException) {
+      Thread.currentThread().interrupt()
+      throw MojoExecutionException("Interrupted while running $what", e)
+    }
+  }
+}
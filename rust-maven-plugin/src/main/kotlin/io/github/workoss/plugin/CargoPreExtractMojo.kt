@@ -0,0 +1,106 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import io.github.workoss.jni.OS
+import java.io.File
+import java.io.IOException
+import java.lang.reflect.InvocationTargetException
+import java.net.URL
+import java.net.URLClassLoader
+import java.nio.file.Path
+import org.apache.maven.plugin.AbstractMojo
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+import org.apache.maven.plugins.annotations.ResolutionScope
+import org.apache.maven.project.MavenProject
+
+/**
+ * Extracts every library indexed for a platform on the runtime classpath, together with the
+ * bundled libraries they link against, into a directory meant to be copied into a container image.
+ *
+ * This runs `PreExtractedLibraries.extract` of the `jni` module on the runtime classpath, so the
+ * manifest always matches the loader that reads it. Pointing
+ * `io.github.workoss.jni.preExtractedDir` or `$RUST_MAVEN_NATIVE_DIR` at the directory makes its
+ * `JniLibLoader` load the libraries in place instead of extracting them on every start. The
+ * `jni-kt` loader does not read the manifest.
+ */
+@Suppress("unused")
+@Mojo(
+    name = "pre-extract",
+    defaultPhase = LifecyclePhase.PACKAGE,
+    threadSafe = true,
+    requiresDependencyResolution = ResolutionScope.RUNTIME)
+class CargoPreExtractMojo : AbstractMojo() {
+  @Parameter(defaultValue = "\${project}", readonly = true, required = true)
+  private val project: MavenProject? = null
+
+  @Parameter(
+      property = "preExtract.outputDirectory",
+      defaultValue = "\${project.build.directory}/rust-native")
+  private val outputDirectory: String = ""
+
+  /**
+   * Platform of the image, e.g. `linux-x86_64` or `linux-aarch_64-musl`. A musl platform also
+   * takes the libraries of the matching glibc index. Defaults to the build's platform.
+   */
+  @Parameter(property = "preExtract.platform") private val platform: String? = null
+
+  /** See `JniLibLoader`'s `prefix`. */
+  @Parameter(property = "preExtract.prefix") private val prefix: String? = null
+
+  @Throws(MojoExecutionException::class)
+  override fun execute() {
+    val project = project!!
+    val outputDir = project.basedir.toPath().resolve(outputDirectory)
+    val platform = platform ?: (OS.os + "-" + OS.arch + if (OS.isMusl) "-musl" else "")
+    val urls =
+        project.runtimeClasspathElements.map { File(it).toURI().toURL() }.toTypedArray<URL>()
+    try {
+      URLClassLoader(urls, null).use { classLoader ->
+        val extractor =
+            try {
+              classLoader.loadClass(EXTRACTOR)
+            } catch (e: ClassNotFoundException) {
+              throw MojoExecutionException(
+                  "$EXTRACTOR is not on the runtime classpath, pre-extract needs the jni module", e)
+            }
+        val extract =
+            extractor.getMethod(
+                "extract",
+                ClassLoader::class.java,
+                String::class.java,
+                String::class.java,
+                Path::class.java)
+        val extracted = extract.invoke(null, classLoader, prefix, platform, outputDir) as Map<*, *>
+        log.info("Extracted ${extracted.size} libraries for $platform to $outputDir")
+      }
+    } catch (e: InvocationTargetException) {
+      val cause = e.targetException
+      throw MojoExecutionException("Failed to pre-extract libraries: ${cause.message}", cause)
+    } catch (e: ReflectiveOperationException) {
+      throw MojoExecutionException("Incompatible $EXTRACTOR: ${e.message}", e)
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to pre-extract libraries: ${e.message}", e)
+    }
+  }
+
+  companion object {
+    private const val EXTRACTOR = "io.github.workoss.jni.PreExtractedLibraries"
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+
+/**
+ * Builds the crate's test binaries with `cargo test --no-run` and records them, so that the
+ * `test` goal only runs them. Without this goal, `test` falls back to `cargo test`.
+ */
+@Suppress("unused")
+@Mojo(name = "test-compile", defaultPhase = LifecyclePhase.TEST_COMPILE, threadSafe = true)
+class CargoTestCompileMojo : AbstractCargoMojoBase() {
+  /** Skips compiling tests, like `mvn package -Dmaven.test.skip=true`. */
+  @Parameter(property = "maven.test.skip", defaultValue = "false") private val skip = false
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    if (skip) {
+      log.info("Skipping test compilation")
+      return
+    }
+    val crate = Crate(crateRoot, targetRootDir, commonCrateParams)
+    crate.setLog(log)
+    // Taken before the build, which may touch the inputs, e.g. through build.rs.
+    val fingerprint = crate.fingerprint()
+    val binaries = ArrayList<TestBinaries.TestBinary>()
+    val nativeDirs = LinkedHashSet<String>()
+    crate.testCompile { line ->
+      val binary = TestBinaries.parseMessage(line)
+      if (binary != null) {
+        binaries.add(binary)
+      }
+      nativeDirs.addAll(TestBinaries.parseNativeDirs(line))
+      // Cargo's JSON messages are for the plugin, diagnostics are rendered separately.
+      !line.startsWith("{")
+    }
+    // Cargo's messages do not say which targets opt out of libtest, Cargo.toml does.
+    val customHarness = crate.customHarnessTargets()
+    val recorded =
+        binaries.map { binary ->
+          val section = if (binary.isLibrary) "lib" else binary.kind
+          binary.withHarness(Pair(section, binary.target) !in customHarness)
+        }
+    val record = TestBinaries.recordFile(targetRootDir, crateRoot.fileName.toString())
+    try {
+      TestBinaries.write(record, fingerprint, TestBinaries.Record(recorded, nativeDirs.toList()))
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to write $record: ${e.message}", e)
+    }
+    log.info("Recorded ${binaries.size} test binaries in $record")
+  }
+}
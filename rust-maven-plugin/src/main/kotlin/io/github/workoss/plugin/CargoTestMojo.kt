@@ -15,18 +15,38 @@
  */
 package io.github.workoss.plugin
 
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Paths
+import org.apache.maven.plugin.AbstractMojoExecutionException
 import org.apache.maven.plugin.MojoExecutionException
 import org.apache.maven.plugin.MojoFailureException
 import org.apache.maven.plugins.annotations.LifecyclePhase
 import org.apache.maven.plugins.annotations.Mojo
 import org.apache.maven.plugins.annotations.Parameter
 
+/**
+ * Runs the crate's tests.
+ *
+ * If the `test-compile` goal recorded the test binaries for the current sources and settings, each
+ * test runs in its own process on `testWorkers` parallel workers and the results are written as
+ * surefire XML reports with per-test durations. The library's doc tests, which are not part of the
+ * recorded binaries, then run through `cargo test --doc`. Otherwise this runs `cargo test`.
+ */
 @Suppress("unused")
 @Mojo(name = "test", defaultPhase = LifecyclePhase.TEST, threadSafe = true)
 class CargoTestMojo : AbstractCargoMojoBase() {
   /** Skips running tests when building with `mvn package -DskipTests=true`. */
   @Parameter(property = "skipTests", defaultValue = "false") private val skipTests = false
 
+  /** Number of tests run concurrently. Defaults to the number of available processors. */
+  @Parameter(property = "testWorkers", defaultValue = "0") private val testWorkers = 0
+
+  /** Directory of the surefire compatible XML reports. */
+  @Parameter(
+      property = "reportsDirectory", defaultValue = "\${project.build.directory}/surefire-reports")
+  private val reportsDirectory: String = ""
+
   @Throws(MojoExecutionException::class, MojoFailureException::class)
   override fun execute() {
     if (skipTests) {
@@ -35,6 +55,45 @@ class CargoTestMojo : AbstractCargoMojoBase() {
     }
     val crate = Crate(crateRoot, targetRootDir, commonCrateParams)
     crate.setLog(log)
-    crate.test()
+    val crateName = crateRoot.fileName.toString()
+    val record = TestBinaries.recordFile(targetRootDir, crateName)
+    val recorded =
+        try {
+          TestBinaries.read(record, crate.fingerprint())
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to read $record: ${e.message}", e)
+        }
+    if (recorded == null) {
+      if (Files.exists(record)) {
+        log.info("$record is out of date, running cargo test")
+      }
+      crate.test()
+      return
+    }
+    val workers = if (testWorkers > 0) testWorkers else Runtime.getRuntime().availableProcessors()
+    val runner =
+        TestRunner(
+            log,
+            workers,
+            crate.testEnvironment(recorded.nativeDirs),
+            crateRoot,
+            Paths.get(reportsDirectory),
+            "rust.$crateName")
+    val binaries = recorded.binaries
+    val failures = runner.run(binaries)
+    var docTestFailure: AbstractMojoExecutionException? = null
+    if (binaries.any { it.isLibrary }) {
+      try {
+        crate.testDoc()
+      } catch (e: AbstractMojoExecutionException) {
+        docTestFailure = e
+      }
+    }
+    if (failures > 0) {
+      throw MojoFailureException("$failures Rust tests failed, see $reportsDirectory")
+    }
+    if (docTestFailure != null) {
+      throw MojoFailureException("Rust doc tests failed", docTestFailure)
+    }
   }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.LifecyclePhase
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+
+/**
+ * Checks that the built library exports a `Java_*` symbol for every `native` method of the
+ * module's compiled classes, so a mismatch fails the build instead of throwing
+ * `UnsatisfiedLinkError` on the first call.
+ *
+ * It also writes a Rust module registering those symbols with `RegisterNatives` from
+ * `JNI_OnLoad`, which binds every method once at load time. Point `registerNativesFile` into the
+ * crate, commit it, and declare it with `mod`. Symbols are read from the ELF dynamic symbol
+ * table, so the goal only runs for ELF libraries and is skipped with a warning otherwise.
+ */
+@Suppress("unused")
+@Mojo(name = "verify-jni", defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
+class CargoVerifyJniMojo : AbstractCargoMojoBase() {
+  @Parameter(property = "jni.classesDirectory", defaultValue = "\${project.build.outputDirectory}")
+  private val classesDirectory: String = ""
+
+  /** The library to check. Defaults to the crate's `cdylib` as built by `build`. */
+  @Parameter(property = "jni.library") private val library: String? = null
+
+  /** Fail the build if a `native` method has no matching symbol. */
+  @Parameter(property = "jni.failOnMissing", defaultValue = "true")
+  private val failOnMissing = true
+
+  /**
+   * Where to write the `RegisterNatives` module. Defaults to
+   * `target/rust-maven-plugin/jni/<crate>/register_natives.rs`.
+   */
+  @Parameter(property = "jni.registerNativesFile") private val registerNativesFile: String? = null
+
+  /** Also generate `JNI_OnLoad`. Disable it if the crate defines its own. */
+  @Parameter(property = "jni.onLoad", defaultValue = "true") private val onLoad = true
+
+  /** Path of the `jni-sys` crate in the generated code, e.g. `jni::sys`. */
+  @Parameter(property = "jni.sysCrate", defaultValue = "jni_sys")
+  private val sysCrate: String = "jni_sys"
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    val methods =
+        try {
+          NativeMethod.scan(resolveAgainstBasedir(classesDirectory))
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to scan classes: ${e.message}", e)
+        }
+    if (methods.isEmpty()) {
+      log.info("No native methods in $classesDirectory")
+      return
+    }
+
+    val libPath = libraryPath()
+    val symbols =
+        try {
+          if (!ElfSymbols.isElf(libPath)) {
+            log.warn("Skipping JNI verification: $libPath is not an ELF library")
+            return
+          }
+          ElfSymbols.exported(libPath)
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to read the symbols of $libPath: ${e.message}", e)
+        }
+
+    // The JVM looks up the short name first, then the long one.
+    val bindings = LinkedHashMap<NativeMethod, String>()
+    val missing = ArrayList<NativeMethod>()
+    for (method in methods) {
+      val symbol = listOf(method.shortSymbol, method.longSymbol).firstOrNull { it in symbols }
+      if (symbol == null) {
+        missing.add(method)
+      } else {
+        bindings[method] = symbol
+      }
+    }
+    val bound = bindings.values.toSet()
+    symbols
+        .filter { it.startsWith("Java_") && it !in bound }
+        .forEach { log.warn("$libPath exports $it, which no native method uses") }
+    log.info("${bindings.size} of ${methods.size} native methods have a symbol in $libPath")
+
+    writeRegisterNatives(bindings)
+
+    if (missing.isNotEmpty()) {
+      val message = StringBuilder("$libPath lacks the symbols of ${missing.size} native methods:")
+      missing.forEach { message.append("\n  $it: ${it.shortSymbol} or ${it.longSymbol}") }
+      if (failOnMissing) {
+        throw MojoFailureException(message.toString())
+      }
+      log.warn(message)
+    }
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun libraryPath(): Path {
+    if (library != null) {
+      return resolveAgainstBasedir(library)
+    }
+    val crate = Crate(crateRoot, targetRootDir, commonCrateParams)
+    crate.setLog(log)
+    val libPath =
+        crate.libPath ?: throw MojoExecutionException("Crate $crateRoot has no `cdylib` target")
+    if (!Files.isRegularFile(libPath)) {
+      throw MojoExecutionException("$libPath does not exist, run the `build` goal first")
+    }
+    return libPath
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun writeRegisterNatives(bindings: Map<NativeMethod, String>) {
+    val file =
+        registerNativesFile?.let { resolveAgainstBasedir(it) }
+            ?: targetRootDir
+                .resolve("jni")
+                .resolve(crateRoot.fileName.toString())
+                .resolve("register_natives.rs")
+    val source = RegisterNatives(sysCrate, onLoad).generate(project!!.artifactId, bindings)
+    val bytes = source.toByteArray(StandardCharsets.UTF_8)
+    try {
+      // Leave an unchanged module alone so cargo does not rebuild the crate.
+      if (Files.isRegularFile(file) && Files.readAllBytes(file).contentEquals(bytes)) {
+        return
+      }
+      Files.createDirectories(file.parent)
+      Files.write(file, bytes)
+      log.info("Generated RegisterNatives table $file")
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to write $file: ${e.message}", e)
+    }
+  }
+}
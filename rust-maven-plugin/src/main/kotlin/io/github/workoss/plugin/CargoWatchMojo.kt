@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.file.FileSystems
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.TimeUnit
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugins.annotations.Mojo
+import org.apache.maven.plugins.annotations.Parameter
+
+/**
+ * Watches the crate and rebuilds it whenever a `.rs`, `Cargo.toml` or `Cargo.lock` file changes,
+ * refreshing only the artifacts cargo relinked in `copyTo`. Runs until Maven is interrupted, e.g.
+ * `mvn rust:watch` next to an IDE that picks up the refreshed libraries.
+ */
+@Suppress("unused")
+@Mojo(name = "watch", threadSafe = true)
+class CargoWatchMojo : AbstractCargoMojoBase() {
+  /** See `build`'s `copyTo`. */
+  @Parameter(property = "copyTo") private val copyTo: String? = null
+
+  /** See `build`'s `copyWithPlatformDir`. */
+  @Parameter(property = "copyWithPlatformDir") private val copyWithPlatformDir = false
+
+  /** Quiet period in milliseconds that ends a burst of changes, e.g. an IDE saving all files. */
+  @Parameter(property = "watch.debounce", defaultValue = "300") private val debounce = 300L
+
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  override fun execute() {
+    val params = commonCrateParams
+    params.copyToDir = copyTo?.let { resolveAgainstBasedir(it) }
+    params.copyWithPlatformDir = copyWithPlatformDir
+    val watcher =
+        try {
+          FileSystems.getDefault().newWatchService()
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to watch $crateRoot: ${e.message}", e)
+        }
+    watcher.use {
+      val keys = HashMap<WatchKey, Path>()
+      register(watcher, crateRoot, keys)
+      var crate = crate(params)
+      crate?.let { rebuild(it, System.nanoTime()) }
+      while (true) {
+        log.info("Watching $crateRoot for changes")
+        val changes = HashSet<Path>()
+        val first =
+            try {
+              val key = watcher.take()
+              val started = System.nanoTime()
+              collect(watcher, key, keys, changes)
+              // Debounce: keep draining until no event arrived for a whole quiet period.
+              while (true) {
+                val next = watcher.poll(debounce, TimeUnit.MILLISECONDS) ?: break
+                collect(watcher, next, keys, changes)
+              }
+              started
+            } catch (e: InterruptedException) {
+              Thread.currentThread().interrupt()
+              return
+            }
+        if (changes.isEmpty()) {
+          continue
+        }
+        log.info("Changed: " + changes.joinToString { crateRoot.relativize(it).toString() })
+        if (crate == null || changes.any { it.fileName.toString() == "Cargo.toml" }) {
+          // The crate's targets may have changed.
+          crate = crate(params)
+        }
+        crate?.let { rebuild(it, first) }
+      }
+    }
+  }
+
+  /** The crate, or `null` after logging why its `Cargo.toml` could not be read. */
+  private fun crate(params: Crate.Params): Crate? {
+    val crate =
+        try {
+          Crate(crateRoot, targetRootDir, params)
+        } catch (e: MojoExecutionException) {
+          log.error("${e.message}, waiting for the next change")
+          return null
+        }
+    crate.setLog(log)
+    return crate
+  }
+
+  /** Build and refresh changed artifacts, reporting the latency since [since]. */
+  private fun rebuild(crate: Crate, since: Long) {
+    val buildStart = System.nanoTime()
+    try {
+      crate.build()
+      val copyStart = System.nanoTime()
+      val copied = crate.copyArtifacts(true)
+      val end = System.nanoTime()
+      log.info(
+          "Rebuilt in ${millis(since, end)} ms (cargo ${millis(buildStart, copyStart)} ms, " +
+              "$copied artifacts refreshed in ${millis(copyStart, end)} ms)")
+    } catch (e: MojoExecutionException) {
+      log.error("Build failed after ${millis(since, System.nanoTime())} ms: ${e.message}")
+    } catch (e: MojoFailureException) {
+      log.error("Build failed after ${millis(since, System.nanoTime())} ms: ${e.message}")
+    }
+  }
+
+  /** Add the relevant changes of [key] to [changes], watching newly created directories. */
+  private fun collect(
+      watcher: WatchService,
+      key: WatchKey,
+      keys: MutableMap<WatchKey, Path>,
+      changes: MutableSet<Path>,
+  ) {
+    val dir = keys[key]
+    for (event in key.pollEvents()) {
+      val context = event.context()
+      if (dir == null || context !is Path) {
+        continue
+      }
+      val path = dir.resolve(context)
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+        register(watcher, path, keys)
+        // Files may have been written before the directory was registered.
+        try {
+          Files.walk(path).use { stream ->
+            stream.filter { isSource(it) }.forEach { changes.add(it) }
+          }
+        } catch (e: IOException) {
+          log.warn("Failed to scan $path: ${e.message}")
+        }
+      } else if (isSource(path)) {
+        changes.add(path)
+      }
+    }
+    if (!key.reset()) {
+      keys.remove(key)
+    }
+  }
+
+  private fun register(watcher: WatchService, root: Path, keys: MutableMap<WatchKey, Path>) {
+    try {
+      Files.walkFileTree(
+          root,
+          object : SimpleFileVisitor<Path>() {
+            override fun preVisitDirectory(
+                dir: Path,
+                attrs: BasicFileAttributes,
+            ): FileVisitResult {
+              val name = dir.fileName?.toString() ?: ""
+              if (dir != crateRoot && (name.startsWith(".") || name == "target")) {
+                return FileVisitResult.SKIP_SUBTREE
+              }
+              val key =
+                  dir.register(
+                      watcher,
+                      StandardWatchEventKinds.ENTRY_CREATE,
+                      StandardWatchEventKinds.ENTRY_MODIFY,
+                      StandardWatchEventKinds.ENTRY_DELETE)
+              keys[key] = dir
+              return FileVisitResult.CONTINUE
+            }
+          })
+    } catch (e: IOException) {
+      log.warn("Failed to watch $root: ${e.message}")
+    }
+  }
+
+  private fun isSource(path: Path): Boolean {
+    val name = path.fileName.toString()
+    return name.endsWith(".rs") || name == "Cargo.toml" || name == "Cargo.lock"
+  }
+
+  private fun millis(from: Long, to: Long): Long = (to - from) / 1_000_000
+}
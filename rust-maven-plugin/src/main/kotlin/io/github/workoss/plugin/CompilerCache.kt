@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.IOException
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.atomic.AtomicReference
+import org.apache.maven.plugin.logging.Log
+
+/**
+ * A compiler cache such as sccache, installed as `RUSTC_WRAPPER`.
+ *
+ * Checkout specific paths are remapped with `--remap-path-prefix` so the compiled objects, and
+ * therefore the cache entries, do not depend on where the sources live.
+ */
+class CompilerCache(
+    private val wrapper: String,
+    private val cacheDir: Path?,
+    private val remappedPaths: Map<Path, String>,
+) {
+  private val isSccache: Boolean
+    get() = Paths.get(wrapper).fileName.toString().startsWith("sccache")
+
+  /** Variables that route rustc through the wrapper. */
+  val environment: Map<String, String>
+    get() {
+      val env = LinkedHashMap<String, String>()
+      env["RUSTC_WRAPPER"] = wrapper
+      if (cacheDir != null && isSccache) {
+        env["SCCACHE_DIR"] = cacheDir.toAbsolutePath().toString()
+      }
+      return env
+    }
+
+  /** Flags that make the compiler output independent of the checkout location. */
+  val rustFlags: List<String>
+    get() =
+        remappedPaths.map { (from, to) -> "--remap-path-prefix=${from.toAbsolutePath()}=$to" }
+
+  /**
+   * Hit and miss counters of the wrapper, or `null` if it cannot report them. Only sccache is
+   * supported.
+   */
+  fun stats(environment: Map<String, String>): Stats? {
+    if (!isSccache) {
+      return null
+    }
+    return try {
+      val output =
+          ProcessPump.capture(
+              listOf(wrapper, "--show-stats", "--stats-format=json"), null, environment)
+      val json = output.firstOrNull { it.startsWith("{") } ?: return null
+      val stats = JsonParser.parseString(json).asJsonObject.getAsJsonObject("stats")
+      Stats(count(stats, "cache_hits"), count(stats, "cache_misses"))
+    } catch (_: IOException) {
+      null
+    } catch (_: RuntimeException) {
+      // Unknown stats format.
+      null
+    } catch (_: InterruptedException) {
+      Thread.currentThread().interrupt()
+      null
+    }
+  }
+
+  /**
+   * Log the hit rate between [before] and [after], and for the reactor since [reactorStart]. The
+   * wrapper's counters are server-wide, so with parallel builds the per-build numbers include the
+   * compilations of builds running at the same time, while the reactor total counts each once.
+   */
+  fun report(log: Log, before: Stats?, after: Stats?) {
+    if (before == null || after == null) {
+      return
+    }
+    val start = reactorStart(before)
+    val hits = after.hits - before.hits
+    val misses = after.misses - before.misses
+    val totalHits = after.hits - start.hits
+    val totalMisses = after.misses - start.misses
+    log.info(
+        "Compiler cache: $hits hits, $misses misses (${rate(hits, misses)}); " +
+            "reactor total $totalHits hits, $totalMisses misses (${rate(totalHits, totalMisses)})")
+  }
+
+  class Stats(val hits: Long, val misses: Long)
+
+  companion object {
+    private val reactorSnapshot = AtomicReference<Stats>()
+
+    /** The counters before the first build of the reactor. */
+    private fun reactorStart(before: Stats): Stats {
+      reactorSnapshot.compareAndSet(null, before)
+      return reactorSnapshot.get()
+    }
+
+    private fun count(stats: JsonObject, name: String): Long {
+      val counts = stats.getAsJsonObject(name)?.getAsJsonObject("counts") ?: return 0
+      return counts.entrySet().sumOf { it.value.asLong }
+    }
+
+    private fun rate(hits: Long, misses: Long): String {
+      val total = hits + misses
+      return if (total == 0L) "n/a" else String.format("%.1f%% hit rate", hits * 100.0 / total)
+    }
+  }
+}
@@ -24,12 +24,10 @@ import org.tomlj.Toml
 import org.tomlj.TomlArray
 import org.tomlj.TomlInvalidTypeException
 import org.tomlj.TomlTable
-import java.io.BufferedReader
+import java.io.File
 import java.io.IOException
-import java.io.InputStreamReader
 import java.nio.file.*
 import java.util.*
-import java.util.concurrent.Executors
 
 /** Controls running tasks on a Rust crate. */
 @Suppress("NAME_SHADOWING")
@@ -37,9 +35,11 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
     private val crateRoot: Path
     private val targetDir: Path
     private val params: Params
-    private var cargoToml: TomlTable
+    private lateinit var cargoToml: TomlTable
     private var packageName: String? = null
+    private val targets: CrateTargets
     private var log: Log
+    private var resolvedToolchain: Toolchain? = null
 
     init {
         this.log = nullLog()
@@ -51,6 +51,20 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
         if (!Files.exists(tomlPath, LinkOption.NOFOLLOW_LINKS)) {
             throw MojoExecutionException("Cargo.toml file expected under: $crateRoot")
         }
+        if (params.useCargoMetadata) {
+            this.targets = CrateTargets.cached(crateRoot, "metadata") {
+                CrateTargets.fromMetadata(cargoPath, crateRoot, params.environmentVariables)
+            }
+        } else {
+            // The default bin is discovered from the file system rather than from Cargo.toml.
+            val mode = "toml:" + Files.exists(crateRoot.resolve("src").resolve("main.rs"))
+            this.targets = CrateTargets.cached(crateRoot, mode) { parseCargoToml(tomlPath) }
+        }
+        this.packageName = targets.packageName
+    }
+
+    @Throws(MojoExecutionException::class)
+    private fun parseCargoToml(tomlPath: Path): CrateTargets {
         try {
             this.cargoToml = Toml.parse(tomlPath)
         } catch (e: IOException) {
@@ -67,6 +81,8 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
                 "Failed to extract `package.name` from Cargo.toml file: " + e.message
             )
         }
+        return CrateTargets(
+            packageName!!, cdylibName, binNames.map { CrateTargets.CargoTarget(it!!) })
     }
 
     fun setLog(log: Log) {
@@ -76,8 +92,59 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
     private val dirName: String
         get() = crateRoot.fileName.toString()
 
+    /** Name of the cargo profile, from `profile`, a `--profile` extra arg or `release`. */
+    private val profileName: String
+        get() = params.profile
+            ?: extraArgValue("--profile")
+            ?: if (params.release) "release" else "dev"
+
+    /** Output directory of the cargo profile; cargo keeps the historic names of the built-ins. */
     private val profile: String
-        get() = if (params.release) "release" else "debug"
+        get() = when (val name = profileName) {
+            "dev", "test" -> "debug"
+            "bench" -> "release"
+            else -> name
+        }
+
+    private fun extraArgValue(option: String): String? {
+        val extraArgs = params.extraArgs
+        for (index in extraArgs.indices) {
+            if (extraArgs[index] == option && index + 1 < extraArgs.size) {
+                return extraArgs[index + 1]
+            } else if (extraArgs[index].startsWith("$option=")) {
+                return extraArgs[index].substring(option.length + 1)
+            }
+        }
+        return null
+    }
+
+    /** Platform of the `--target` triple, or `null` when building for the host. */
+    private val targetPlatform: TargetPlatform? by lazy {
+        params.target?.let { TargetPlatform.of(it) }
+    }
+
+    /**
+     * Cross builds and builds with their own rustc flags get their own cargo target directory, so
+     * that they can run in parallel without contending for cargo's build directory lock and do not
+     * invalidate each other's incremental state.
+     */
+    private val cargoTargetDir: Path
+        get() {
+            var dir = targetDir
+            params.targetSubdir?.let { dir = dir.resolve(it) }
+            params.target?.let { dir = dir.resolve("cross").resolve(it) }
+            return dir
+        }
+
+    private val profileDir: Path
+        get() = params.target?.let { cargoTargetDir.resolve(it).resolve(profile) }
+            ?: cargoTargetDir.resolve(profile)
+
+    private fun libFileName(name: String): String =
+        targetPlatform?.libFileName(name) ?: pinLibName(name)
+
+    private fun binFileName(name: String): String =
+        targetPlatform?.binFileName(name) ?: pinBinName(name)
 
     private fun hasCdylib(): Boolean {
         try {
@@ -106,6 +173,15 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
             return crateTypes
         }
 
+    /** Name of the crate's `cdylib` target, or `null` if it has none. */
+    val libName: String?
+        get() = targets.cdylibName
+
+    /** Path cargo builds the crate's `cdylib` to, or `null` if it has none. */
+    @get:Throws(MojoExecutionException::class)
+    val libPath: Path?
+        get() = targets.cdylibName?.let { profileDir.resolve(libFileName(it)) }
+
     @get:Throws(MojoExecutionException::class)
     private val cdylibName: String?
         get() {
@@ -211,22 +287,45 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
     val artifactPaths: List<Path>
         get() {
             val paths: MutableList<Path> = ArrayList<Path>()
-            val profile = profile
+            val profileDir = profileDir
+            val features =
+                targets.enabledFeatures(params.cleanedFeatures(), params.noDefaultFeatures)
 
-            val libName = cdylibName
+            val libName = targets.cdylibName
             if (libName != null) {
-                val libPath: Path = targetDir.resolve(profile).resolve(pinLibName(libName))
+                val libPath: Path = profileDir.resolve(libFileName(libName))
                 paths.add(libPath)
             }
 
-            for (binName in binNames) {
-                val binPath: Path = targetDir.resolve(profile).resolve(pinBinName(binName))
-                paths.add(binPath)
+            for (bin in targets.bins) {
+                if (isBuilt(bin, features)) {
+                    val binPath: Path = profileDir.resolve(binFileName(bin.name))
+                    paths.add(binPath)
+                }
+            }
+
+            if (params.examples) {
+                val examplesDir = profileDir.resolve("examples")
+                for (example in targets.examples) {
+                    if (isBuilt(example, features)) {
+                        val name = if (example.cdylib) {
+                            libFileName(example.name)
+                        } else {
+                            binFileName(example.name)
+                        }
+                        paths.add(examplesDir.resolve(name))
+                    }
+                }
             }
 
             return paths
         }
 
+    /** Cargo silently skips targets whose `required-features` are not all enabled. */
+    private fun isBuilt(target: CrateTargets.CargoTarget, features: Set<String>): Boolean {
+        return params.allFeatures || features.containsAll(target.requiredFeatures)
+    }
+
     private val cargoPath: String
         get() {
             var path = params.cargoPath
@@ -238,44 +337,201 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
             return path
         }
 
+    /**
+     * The configured environment variables plus those the plugin derives from its own settings.
+     * Extra rustc flags are passed through `CARGO_ENCODED_RUSTFLAGS`, which preserves spaces in
+     * paths and keeps any `RUSTFLAGS` already set, or else the `rustflags` of `.cargo/config.toml`.
+     */
+    private val cargoEnvironment: Map<String, String>
+        get() {
+            val env = LinkedHashMap(params.environmentVariables)
+            params.compilerCache?.let { env.putAll(it.environment) }
+            env.putAll(profileEnvironment)
+            env.putAll(params.cargoEnvironment)
+            val rustFlags = ArrayList<String>()
+            params.compilerCache?.let { rustFlags.addAll(it.rustFlags) }
+            params.targetCpu?.let { rustFlags.add("-Ctarget-cpu=$it") }
+            rustFlags.addAll(params.rustFlags)
+            if (rustFlags.isNotEmpty()) {
+                val encoded =
+                    env["CARGO_ENCODED_RUSTFLAGS"] ?: System.getenv("CARGO_ENCODED_RUSTFLAGS")
+                val plain = env["RUSTFLAGS"] ?: System.getenv("RUSTFLAGS")
+                val flags = ArrayList<String>()
+                if (encoded != null) {
+                    flags.addAll(encoded.split('\u001f').filter { it.isNotEmpty() })
+                } else if (plain != null) {
+                    flags.addAll(plain.split(Regex("\\s+")).filter { it.isNotEmpty() })
+                } else {
+                    // Cargo ignores the config's rustflags once the variable is set.
+                    flags.addAll(configRustFlags())
+                }
+                flags.addAll(rustFlags)
+                env["CARGO_ENCODED_RUSTFLAGS"] = flags.joinToString("\u001f")
+            }
+            return env
+        }
+
+    /**
+     * The `rustflags` of the `.cargo/config.toml` files that apply to the crate, joined like cargo
+     * does with the closest file last. `target.<triple>.rustflags` take precedence over
+     * `build.rustflags`; `target.'cfg(..)'.rustflags` cannot be evaluated and are only reported.
+     */
+    private fun configRustFlags(): List<String> {
+        resolvedConfigRustFlags?.let { return it }
+        val configs = ArrayList<Path>()
+        val cargoHome = System.getenv("CARGO_HOME")?.let { Paths.get(it) }
+            ?: Paths.get(System.getProperty("user.home"), ".cargo")
+        var dir: Path? = crateRoot.toAbsolutePath()
+        while (dir != null) {
+            configs.add(dir.resolve(".cargo"))
+            dir = dir.parent
+        }
+        if (!configs.contains(cargoHome.toAbsolutePath())) {
+            configs.add(cargoHome.toAbsolutePath())
+        }
+        val triple = params.target ?: toolchain.host
+        val targetFlags = ArrayList<String>()
+        val buildFlags = ArrayList<String>()
+        for (configDir in configs.asReversed()) {
+            val config = listOf("config.toml", "config").map { configDir.resolve(it) }
+                .firstOrNull { Files.isRegularFile(it) } ?: continue
+            val toml = try {
+                Toml.parse(config)
+            } catch (e: IOException) {
+                log.warn("Failed to read $config: ${e.message}")
+                continue
+            }
+            targetFlags.addAll(rustFlagsOf(toml, listOf("target", triple, "rustflags")))
+            buildFlags.addAll(rustFlagsOf(toml, listOf("build", "rustflags")))
+            toml.getTable("target")?.keySet()?.filter { it.startsWith("cfg(") }?.forEach {
+                if (toml.get(listOf("target", it, "rustflags")) != null) {
+                    log.warn(
+                        "Ignoring target.'$it'.rustflags of $config, " +
+                            "cargo does not apply them when the plugin sets rustc flags"
+                    )
+                }
+            }
+        }
+        val flags = if (targetFlags.isNotEmpty()) targetFlags else buildFlags
+        resolvedConfigRustFlags = flags
+        return flags
+    }
+
+    private var resolvedConfigRustFlags: List<String>? = null
+
+    private fun rustFlagsOf(toml: TomlTable, key: List<String>): List<String> {
+        return when (val value = toml.get(key)) {
+            is String -> value.split(Regex("\\s+")).filter { it.isNotEmpty() }
+            is TomlArray -> value.toList().map { it.toString() }
+            else -> emptyList()
+        }
+    }
+
+    /**
+     * Profile settings overridden through cargo's `CARGO_PROFILE_<name>_*` configuration variables,
+     * which take precedence over the crate's `Cargo.toml`.
+     */
+    private val profileEnvironment: Map<String, String>
+        get() {
+            val env = LinkedHashMap<String, String>()
+            val prefix = "CARGO_PROFILE_" + profileName.uppercase().replace('-', '_') + "_"
+            params.lto?.let { env[prefix + "LTO"] = it }
+            params.codegenUnits?.let { env[prefix + "CODEGEN_UNITS"] = it.toString() }
+            params.panic?.let { env[prefix + "PANIC"] = it }
+            params.optLevel?.let { env[prefix + "OPT_LEVEL"] = it }
+            return env
+        }
+
     @Throws(IOException::class, InterruptedException::class, MojoExecutionException::class)
-    private fun runCommand(args: List<String?>) {
+    private fun runCommand(args: List<String?>, listener: ((String) -> Boolean)?) {
         val processBuilder = ProcessBuilder(args)
         processBuilder.redirectErrorStream(true)
-        processBuilder.environment().putAll(params.environmentVariables)
+        processBuilder.environment().putAll(cargoEnvironment)
 
         // Set the current working directory for the cargo command.
         processBuilder.directory(crateRoot.toFile())
-        val process = processBuilder.start()
-        Executors.newSingleThreadExecutor().submit {
-            BufferedReader(InputStreamReader(process.inputStream)).lines().forEach { charSequence: String?
-                ->
-                log.info(charSequence)
-            }
-        }
 
-        val exitCode = process.waitFor()
+        // Hold a jobserver token for cargo's implicit job while it runs.
+        val jobserver = params.jobserver
+        if (jobserver != null) {
+            processBuilder.environment().putAll(jobserver.environment)
+            jobserver.acquire()
+        }
+        val startTime = System.nanoTime()
+        val exitCode: Int
+        val prefix = params.target?.let { "[$it] " } ?: ""
+        val pump = ProcessPump(log, params.quiet, params.outputTailLines, prefix, listener)
+        try {
+            val process = processBuilder.start()
+            val output = pump.start(process.inputStream)
+            exitCode = process.waitFor()
+            pump.join(output)
+        } finally {
+            jobserver?.release()
+        }
         if (exitCode != 0) {
+            if (params.quiet) {
+                pump.logTail()
+            }
             throw MojoExecutionException("Cargo command failed with exit code $exitCode")
         }
+        if (params.quiet) {
+            val elapsed = (System.nanoTime() - startTime) / 1_000_000
+            log.info("Cargo finished in ${elapsed}ms (${pump.lines} lines of output suppressed)")
+        }
+    }
+
+    /**
+     * The toolchain cargo will use for this crate. Resolved once per reactor build and shared by
+     * all executions that select the same toolchain.
+     */
+    @get:Throws(MojoExecutionException::class)
+    val toolchain: Toolchain
+        get() {
+            var toolchain = resolvedToolchain
+            if (toolchain == null) {
+                toolchain = Toolchain.resolve(
+                    cargoPath, crateRoot, params.environmentVariables, params.toolchainCacheDir
+                )
+                resolvedToolchain = toolchain
+            }
+            return toolchain
+        }
+
+    /** Validate the toolchain and any requested `--target` before spawning cargo. */
+    @Throws(MojoExecutionException::class)
+    private fun preflight() {
+        val toolchain = toolchain
+        log.debug("Using ${toolchain.rustcVersion.lineSequence().first()} on ${toolchain.host}")
+        params.target?.let { toolchain.requireTarget(it) }
+        val extraArgs = params.extraArgs
+        for (index in extraArgs.indices) {
+            if (extraArgs[index] == "--target" && index + 1 < extraArgs.size) {
+                toolchain.requireTarget(extraArgs[index + 1])
+            } else if (extraArgs[index].startsWith("--target=")) {
+                toolchain.requireTarget(extraArgs[index].substring("--target=".length))
+            }
+        }
     }
 
     @Throws(MojoExecutionException::class, MojoFailureException::class)
-    private fun cargo(args: List<String?>) {
+    private fun cargo(args: List<String?>, listener: ((String) -> Boolean)? = null) {
+        preflight()
         val cargoPath = cargoPath
         val cmd: MutableList<String?> = ArrayList()
         cmd.add(cargoPath)
         cmd.addAll(args)
         log.info("Working directory: $crateRoot")
-        if (params.environmentVariables.isNotEmpty()) {
+        val environment = cargoEnvironment
+        if (environment.isNotEmpty()) {
             log.info("Environment variables:")
-            for (key in params.environmentVariables.keys) {
-                log.info("  $key=" + params.environmentVariables[key]?.let { Shlex.quote(it) })
+            for (key in environment.keys) {
+                log.info("  $key=" + environment[key]?.let { Shlex.quote(it) })
             }
         }
         log.info("Running: " + Shlex.quote(cmd))
         try {
-            runCommand(cmd)
+            runCommand(cmd, listener)
         } catch (e: IOException) {
 
             CargoInstalledChecker.INSTANCE.check(cargoPath)
@@ -292,9 +548,17 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
         }
 
         args.add("--target-dir")
-        args.add(targetDir.toAbsolutePath().toString())
+        args.add(cargoTargetDir.toAbsolutePath().toString())
 
-        if (params.release) {
+        if (params.target != null) {
+            args.add("--target")
+            args.add(params.target)
+        }
+
+        if (params.profile != null) {
+            args.add("--profile")
+            args.add(params.profile)
+        } else if (params.release) {
             args.add("--release")
         }
 
@@ -316,6 +580,10 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
             args.add("--tests")
         }
 
+        if (params.examples) {
+            args.add("--examples")
+        }
+
         //        if (params.extraArgs != null) {
         Collections.addAll(args, *params.extraArgs)
         //        }
@@ -326,7 +594,10 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
         val args: MutableList<String?> = ArrayList()
         args.add("build")
         addCargoArgs(args)
+        val compilerCache = params.compilerCache
+        val before = compilerCache?.stats(cargoEnvironment)
         cargo(args)
+        compilerCache?.report(log, before, compilerCache.stats(cargoEnvironment))
     }
 
     @Throws(MojoExecutionException::class, MojoFailureException::class)
@@ -337,12 +608,193 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
         cargo(args)
     }
 
+    /** Run the library's doc tests, which are not part of the binaries [testCompile] builds. */
+    @Throws(MojoExecutionException::class, MojoFailureException::class)
+    fun testDoc() {
+        val args: MutableList<String?> = ArrayList()
+        args.add("test")
+        args.add("--doc")
+        addCargoArgs(args)
+        cargo(args)
+    }
+
+    /**
+     * Build the test binaries without running them. Every JSON message of cargo is passed to
+     * [listener], which returns whether it is logged.
+     */
+    @Throws(MojoExecutionException::class, MojoFailureException::class)
+    fun testCompile(listener: (String) -> Boolean) {
+        val args: MutableList<String?> = ArrayList()
+        args.add("test")
+        args.add("--no-run")
+        args.add("--message-format=json-render-diagnostics")
+        addCargoArgs(args)
+        cargo(args, listener)
+    }
+
+    /**
+     * Run `cargo check`. Every JSON message of cargo, including rustc's diagnostics, is passed to
+     * [listener], which returns whether it is logged.
+     */
+    @Throws(MojoExecutionException::class, MojoFailureException::class)
+    fun check(listener: (String) -> Boolean) {
+        val args: MutableList<String?> = ArrayList()
+        args.add("check")
+        args.add("--message-format=json")
+        addCargoArgs(args)
+        cargo(args, listener)
+    }
+
+    /**
+     * Environment to run test binaries in, matching what `cargo test` provides: the manifest
+     * directory, and a library search path of the build script [nativeDirs] inside the target
+     * directory, the `deps` directory and the toolchain's target libraries.
+     */
+    @Throws(MojoExecutionException::class)
+    fun testEnvironment(nativeDirs: List<String>): Map<String, String> {
+        val environment = HashMap(cargoEnvironment)
+        environment["CARGO_MANIFEST_DIR"] = crateRoot.toAbsolutePath().toString()
+        val targetDir = cargoTargetDir.toAbsolutePath()
+        val searchPath = ArrayList<String>()
+        nativeDirs.map { Paths.get(it) }.filter { it.startsWith(targetDir) }
+            .forEach { searchPath.add(it.toString()) }
+        searchPath.add(profileDir.resolve("deps").toAbsolutePath().toString())
+        val triple = params.target ?: toolchain.host
+        searchPath.add(
+            toolchain.sysroot.resolve("lib").resolve("rustlib").resolve(triple).resolve("lib").toString()
+        )
+        val variable = when {
+            OS.isWindows -> System.getenv().keys.firstOrNull { it.equals("PATH", true) } ?: "PATH"
+            OS.isOSX -> "DYLD_FALLBACK_LIBRARY_PATH"
+            else -> "LD_LIBRARY_PATH"
+        }
+        var existing = environment[variable] ?: System.getenv(variable)
+        if (existing.isNullOrEmpty() && OS.isOSX) {
+            // The dynamic linker's default, which setting the variable would otherwise replace.
+            existing = System.getProperty("user.home") + "/lib:/usr/local/lib:/usr/lib"
+        }
+        environment[variable] =
+            (searchPath + listOfNotNull(existing?.ifEmpty { null })).joinToString(File.pathSeparator)
+        return environment
+    }
+
+    /**
+     * Targets declared with `harness = false` in `Cargo.toml`, as pairs of their section (`lib`,
+     * `bin`, `test`, `bench` or `example`) and name.
+     */
+    @Throws(MojoExecutionException::class)
+    fun customHarnessTargets(): Set<Pair<String, String>> {
+        val toml = try {
+            Toml.parse(crateRoot.resolve("Cargo.toml"))
+        } catch (e: IOException) {
+            throw MojoExecutionException("Failed to parse Cargo.toml file: " + e.message)
+        }
+        val targets = HashSet<Pair<String, String>>()
+        val lib = toml.getTable("lib")
+        if (lib != null && lib.getBoolean("harness") == false) {
+            val name = lib.getString("name") ?: toml.getString("package.name") ?: ""
+            targets.add(Pair("lib", name.replace('-', '_')))
+        }
+        for (section in listOf("bin", "test", "bench", "example")) {
+            val array = toml.getArray(section) ?: continue
+            for (index in 0 until array.size()) {
+                val table = array.getTable(index)
+                val name = table.getString("name") ?: continue
+                if (table.getBoolean("harness") == false) {
+                    targets.add(Pair(section, name))
+                }
+            }
+        }
+        return targets
+    }
+
+    /** Run `cargo bench`, passing [benchArgs] to the harness and every output line to [listener]. */
+    @Throws(MojoExecutionException::class, MojoFailureException::class)
+    fun bench(benchArgs: List<String>, listener: (String) -> Boolean) {
+        val args: MutableList<String?> = ArrayList()
+        args.add("bench")
+        addCargoArgs(args)
+        // Benches always use the `bench` profile and `cargo bench` rejects `--release`.
+        args.remove("--release")
+        if (benchArgs.isNotEmpty()) {
+            args.add("--")
+            args.addAll(benchArgs)
+        }
+        cargo(args, listener)
+    }
+
+    /**
+     * Fingerprint of everything that determines this crate's artifacts: its sources, the nearest
+     * `Cargo.lock`, the toolchain, the target and the cargo arguments and environment.
+     */
+    @Throws(MojoExecutionException::class)
+    fun fingerprint(): String {
+        val args: MutableList<String?> = ArrayList()
+        addCargoArgs(args)
+        val extra = ArrayList<String>()
+        extra.add(toolchain.fingerprint)
+        extra.add("target=" + (params.target ?: toolchain.host))
+        extra.add("args=" + args.filter { it != cargoTargetDir.toAbsolutePath().toString() })
+        val environment = TreeMap<String, String>()
+        System.getenv().filterKeys { it.startsWith("CARGO_") || it.startsWith("RUST") }
+            .forEach { (key, value) -> environment[key] = value }
+        environment.putAll(cargoEnvironment)
+        environment.forEach { (key, value) -> extra.add("$key=$value") }
+        var dir: Path? = crateRoot.toAbsolutePath().parent
+        while (dir != null && !Files.exists(crateRoot.resolve("Cargo.lock"))) {
+            val lock = dir.resolve("Cargo.lock")
+            if (Files.isRegularFile(lock)) {
+                val content = String(Files.readAllBytes(lock), Charsets.UTF_8)
+                extra.add("lock=" + Toolchain.sha256(content))
+                break
+            }
+            dir = dir.parent
+        }
+        try {
+            return ArtifactCache.fingerprint(
+                crateRoot.toAbsolutePath(), targetDir.toAbsolutePath(), extra
+            )
+        } catch (e: IOException) {
+            throw MojoExecutionException("Failed to fingerprint $crateRoot: ${e.message}", e)
+        }
+    }
+
+    /** Artifacts keyed by their path relative to the cargo profile directory. */
+    private val cacheableArtifacts: Map<String, Path>
+        get() = artifactPaths.associateBy {
+            profileDir.relativize(it).toString().replace('\\', '/')
+        }
+
+    /**
+     * Restore this crate's artifacts from [cache] instead of building it. Returns `false` when the
+     * cache has no complete entry for [key], the [fingerprint] taken before the build.
+     */
+    @Throws(MojoExecutionException::class)
+    fun restoreArtifacts(cache: ArtifactCache, key: String): Boolean {
+        if (!cache.restore(key, cacheableArtifacts)) {
+            log.info("Binary cache miss for $dirName ($key)")
+            return false
+        }
+        log.info("Restored $dirName's artifacts from the binary cache ($key)")
+        return true
+    }
+
+    /**
+     * Populate [cache] with the artifacts of a successful [build] under [key], the same
+     * [fingerprint] the lookup used.
+     */
+    @Throws(MojoExecutionException::class)
+    fun storeArtifacts(cache: ArtifactCache, key: String) {
+        val artifacts = cacheableArtifacts.filterValues { Files.isRegularFile(it) }
+        cache.store(key, artifacts)
+    }
+
     @Throws(MojoExecutionException::class)
     private fun resolveCopyToDir(): Path? {
         var copyToDir: Path = params.copyToDir ?: return null
 
         if (params.copyWithPlatformDir) {
-            copyToDir = copyToDir.resolve("${OS.os}-${OS.arch}")
+            copyToDir = copyToDir.resolve(targetPlatform?.platformDir ?: "${OS.os}-${OS.arch}")
         }
 
         if (!Files.exists(copyToDir, LinkOption.NOFOLLOW_LINKS)) {
@@ -359,14 +811,18 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
         return copyToDir
     }
 
+    /**
+     * Copy the artifacts to `copyTo` and return how many were copied. With [changedOnly], artifacts
+     * whose copy is newer than the cargo output are skipped.
+     */
     @Throws(MojoExecutionException::class)
-    fun copyArtifacts() {
+    fun copyArtifacts(changedOnly: Boolean = false): Int {
         // Cargo nightly has support for `--out-dir`
         // which allows us to copy the artifacts directly to the desired path.
         // Once the feature is stabilized, copy the artifacts directly via:
         // args.add("--out-dir")
         // args.add(resolveCopyToDir());
-        val copyToDir: Path = resolveCopyToDir() ?: return
+        val copyToDir: Path = resolveCopyToDir() ?: return 0
         val artifactPaths: List<Path> = artifactPaths
         log.info(
             "Copying " +
@@ -375,9 +831,13 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
                     Shlex.quote(copyToDir.toAbsolutePath().toString())
         )
 
+        val platform = targetPlatform
+        var copied = 0
         for (artifactPath in artifactPaths) {
             val fileName: Path =
                 if (params.copyWithPlatformDir) artifactPath.fileName
+                else if (platform != null)
+                    Paths.get(platform.jniLibPath(artifactPath.fileName.toString(), false))
                 else
                     Paths.get(
                         JniLibLoader.getJniLibPath(
@@ -385,6 +845,9 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
                         )
                     )
             val destPath: Path = copyToDir.resolve(fileName)
+            if (changedOnly && isUpToDate(artifactPath, destPath)) {
+                continue
+            }
             log.info("fileName:${fileName}, destPath:${destPath}")
             try {
                 Files.copy(artifactPath, destPath, StandardCopyOption.REPLACE_EXISTING)
@@ -394,6 +857,34 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
                 )
             }
             log.info("Copied " + Shlex.quote(fileName.toString()))
+            copied++
+            val platformDir = platform?.platformDir ?: "${OS.os}-${OS.arch}"
+            params.debugInfo?.split(
+                artifactPath, destPath, platform?.os ?: OS.os, platformDir, params.variant
+            )
+            val libName = targets.cdylibName
+            if (params.nativeIndex && libName != null &&
+                artifactPath == profileDir.resolve(libFileName(libName))
+            ) {
+                try {
+                    NativeIndex.record(
+                        params.copyToDir!!, platformDir, libName, destPath,
+                        params.nativeDependencies
+                    )
+                } catch (e: IOException) {
+                    throw MojoExecutionException("Failed to index $destPath: ${e.message}", e)
+                }
+            }
+        }
+        return copied
+    }
+
+    private fun isUpToDate(artifactPath: Path, destPath: Path): Boolean {
+        return try {
+            Files.exists(destPath) &&
+                Files.getLastModifiedTime(destPath) >= Files.getLastModifiedTime(artifactPath)
+        } catch (e: IOException) {
+            false
         }
     }
 
@@ -409,6 +900,69 @@ class Crate(crateRoot: Path, targetRootDir: Path, params: Params) {
         var extraArgs: Array<String> = emptyArray()
         var copyToDir: Path? = null
         var copyWithPlatformDir: Boolean = false
+        var quiet: Boolean = false
+        var outputTailLines: Int = 200
+        var toolchainCacheDir: Path? = null
+        var useCargoMetadata: Boolean = false
+        var examples: Boolean = false
+        var nativeDependencies: Array<String> = emptyArray()
+
+        /** Record copied libraries in the native index, which platform JARs are packaged from. */
+        var nativeIndex: Boolean = false
+        var jobserver: Jobserver? = null
+        var target: String? = null
+        var artifactCache: ArtifactCache? = null
+        var compilerCache: CompilerCache? = null
+        var rustFlags: List<String> = emptyList()
+        var cargoEnvironment: Map<String, String> = emptyMap()
+        var targetSubdir: String? = null
+        var profile: String? = null
+        var lto: String? = null
+        var codegenUnits: Int? = null
+        var panic: String? = null
+        var optLevel: String? = null
+        var targetCpu: String? = null
+        var variant: String? = null
+        var debugInfo: DebugInfo? = null
+
+        /** A copy of these params that can be adjusted for one build of a matrix. */
+        fun copy(): Params {
+            val copy = Params()
+            copy.verbosity = verbosity
+            copy.environmentVariables = environmentVariables
+            copy.cargoPath = cargoPath
+            copy.release = release
+            copy.features = features
+            copy.allFeatures = allFeatures
+            copy.noDefaultFeatures = noDefaultFeatures
+            copy.tests = tests
+            copy.extraArgs = extraArgs
+            copy.copyToDir = copyToDir
+            copy.copyWithPlatformDir = copyWithPlatformDir
+            copy.quiet = quiet
+            copy.outputTailLines = outputTailLines
+            copy.toolchainCacheDir = toolchainCacheDir
+            copy.useCargoMetadata = useCargoMetadata
+            copy.examples = examples
+            copy.nativeDependencies = nativeDependencies
+            copy.nativeIndex = nativeIndex
+            copy.jobserver = jobserver
+            copy.target = target
+            copy.artifactCache = artifactCache
+            copy.compilerCache = compilerCache
+            copy.rustFlags = rustFlags
+            copy.cargoEnvironment = cargoEnvironment
+            copy.targetSubdir = targetSubdir
+            copy.profile = profile
+            copy.lto = lto
+            copy.codegenUnits = codegenUnits
+            copy.panic = panic
+            copy.optLevel = optLevel
+            copy.targetCpu = targetCpu
+            copy.variant = variant
+            copy.debugInfo = debugInfo
+            return copy
+        }
 
         /** Returns the features array with empty and null elements removed. */
         fun cleanedFeatures(): Array<String?> {
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParseException
+import com.google.gson.JsonParser
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.ConcurrentHashMap
+import org.apache.maven.plugin.MojoExecutionException
+
+/** The artifacts-producing targets of a crate, as needed to locate its build output. */
+class CrateTargets(
+    val packageName: String,
+    val cdylibName: String?,
+    val bins: List<CargoTarget>,
+    val examples: List<CargoTarget> = emptyList(),
+    private val featureTable: Map<String, List<String>> = emptyMap(),
+) {
+  /**
+   * Expand the features requested on the command line into every feature of this package they
+   * enable, so targets with `required-features` can be matched against it.
+   */
+  fun enabledFeatures(requested: Array<String?>, noDefaultFeatures: Boolean): Set<String> {
+    val enabled = LinkedHashSet<String>()
+    val pending = ArrayDeque<String>()
+    requested.filterNotNull().forEach { pending.add(it) }
+    if (!noDefaultFeatures && featureTable.containsKey("default")) {
+      pending.add("default")
+    }
+    while (pending.isNotEmpty()) {
+      val feature = pending.removeFirst()
+      if (enabled.add(feature)) {
+        featureTable[feature]?.filter { !it.contains('/') && !it.startsWith("dep:") }?.let {
+          pending.addAll(it)
+        }
+      }
+    }
+    return enabled
+  }
+
+  /** A `bin` or `example` target. Examples may also be cdylibs, in which case [cdylib] is set. */
+  class CargoTarget(
+      val name: String,
+      val requiredFeatures: List<String> = emptyList(),
+      val cdylib: Boolean = false,
+  )
+
+  companion object {
+    private val cache = ConcurrentHashMap<String, Entry>()
+
+    /**
+     * Targets for the crate at [crateRoot], computed by [resolver] at most once per build for a
+     * given `Cargo.toml` modification time and shared by every execution of the reactor.
+     */
+    @Throws(MojoExecutionException::class)
+    fun cached(
+        crateRoot: Path,
+        mode: String,
+        resolver: () -> CrateTargets,
+    ): CrateTargets {
+      val manifest = crateRoot.resolve("Cargo.toml").toAbsolutePath().normalize()
+      val stamp =
+          try {
+            Files.getLastModifiedTime(manifest).toMillis()
+          } catch (e: IOException) {
+            throw MojoExecutionException("Failed to read $manifest: ${e.message}", e)
+          }
+      val key = "$mode:$manifest"
+      val entry = cache[key]
+      if (entry != null && entry.stamp == stamp) {
+        return entry.targets
+      }
+      val targets = resolver()
+      cache[key] = Entry(stamp, targets)
+      return targets
+    }
+
+    /**
+     * Resolve targets through `cargo metadata`, which understands workspace inheritance, target
+     * auto-discovery, `required-features` and examples.
+     */
+    @Throws(MojoExecutionException::class)
+    fun fromMetadata(
+        cargoPath: String,
+        crateRoot: Path,
+        environment: Map<String, String>,
+    ): CrateTargets {
+      val manifest = crateRoot.resolve("Cargo.toml")
+      val args =
+          listOf(
+              cargoPath,
+              "metadata",
+              "--format-version",
+              "1",
+              "--no-deps",
+              "--manifest-path",
+              manifest.toString())
+      val output =
+          try {
+            ProcessPump.capture(args, crateRoot, environment)
+          } catch (e: IOException) {
+            CargoInstalledChecker.INSTANCE.check(cargoPath)
+            throw MojoExecutionException("Failed to run `cargo metadata`: ${e.message}", e)
+          } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw MojoExecutionException("Interrupted while running `cargo metadata`", e)
+          }
+      val json =
+          output.firstOrNull { it.startsWith("{") }
+              ?: throw MojoExecutionException("`cargo metadata` produced no output")
+      try {
+        return parseMetadata(JsonParser.parseString(json).asJsonObject, manifest)
+      } catch (e: RuntimeException) {
+        if (e is JsonParseException || e is IllegalStateException) {
+          throw MojoExecutionException("Failed to parse `cargo metadata` output: ${e.message}", e)
+        }
+        throw e
+      }
+    }
+
+    private fun parseMetadata(metadata: JsonObject, manifest: Path): CrateTargets {
+      val manifestPath = realPath(manifest)
+      val pkg =
+          metadata
+              .getAsJsonArray("packages")
+              .map { it.asJsonObject }
+              .firstOrNull { realPath(Paths.get(it.get("manifest_path").asString)) == manifestPath }
+              ?: throw MojoExecutionException("`cargo metadata` did not report $manifest")
+
+      var cdylibName: String? = null
+      val bins = ArrayList<CargoTarget>()
+      val examples = ArrayList<CargoTarget>()
+      for (element in pkg.getAsJsonArray("targets")) {
+        val target = element.asJsonObject
+        val name = target.get("name").asString
+        val kinds = target.getAsJsonArray("kind").map { it.asString }
+        val crateTypes = target.getAsJsonArray("crate_types")?.map { it.asString } ?: kinds
+        val requiredFeatures =
+            target.getAsJsonArray("required-features")?.map { it.asString } ?: emptyList()
+        when {
+          kinds.contains("example") ->
+              examples.add(CargoTarget(name, requiredFeatures, crateTypes.contains("cdylib")))
+          kinds.contains("bin") -> bins.add(CargoTarget(name, requiredFeatures))
+          crateTypes.contains("cdylib") -> cdylibName = name
+        }
+      }
+
+      val features = LinkedHashMap<String, List<String>>()
+      pkg.getAsJsonObject("features")?.entrySet()?.forEach { (name, value) ->
+        features[name] = value.asJsonArray.map { it.asString }
+      }
+      return CrateTargets(pkg.get("name").asString, cdylibName, bins, examples, features)
+    }
+
+    private fun realPath(path: Path): Path {
+      return try {
+        path.toRealPath()
+      } catch (_: IOException) {
+        path.toAbsolutePath().normalize()
+      }
+    }
+  }
+
+  private class Entry(val stamp: Long, val targets: CrateTargets)
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.stream.Collectors
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.logging.Log
+
+/**
+ * Moves the debug information of copied artifacts into [debugDir], one directory per platform, so
+ * the shipped binaries stay small while crashes can still be symbolicated.
+ *
+ * ELF files are split with `objcopy` and keep a `.gnu_debuglink` to their `.debug` file, Mach-O
+ * files get a `.dSYM` bundle from `dsymutil` before `strip -S`, and the `.pdb` files the MSVC
+ * toolchain writes next to Windows artifacts are collected as they are.
+ */
+class DebugInfo(private val objcopy: String, val debugDir: Path, private val log: Log) {
+
+  /**
+   * Strip [artifact], the copy of the cargo output [built] for platform [platformDir], keeping its
+   * debug information under [debugDir]. [variant] separates CPU-tuned builds of the same file.
+   */
+  @Throws(MojoExecutionException::class)
+  fun split(built: Path, artifact: Path, os: String, platformDir: String, variant: String?) {
+    var dir = debugDir.resolve(platformDir)
+    variant?.let { dir = dir.resolve(it) }
+    val name = artifact.fileName.toString()
+    try {
+      Files.createDirectories(dir)
+      when (os) {
+        "windows" -> {
+          val pdb = built.resolveSibling(stem(built.fileName.toString()) + ".pdb")
+          if (Files.isRegularFile(pdb)) {
+            Files.copy(pdb, dir.resolve(pdb.fileName), StandardCopyOption.REPLACE_EXISTING)
+          }
+        }
+        "osx" -> {
+          run(listOf("dsymutil", built.toString(), "-o", dir.resolve("$name.dSYM").toString()))
+          run(listOf("strip", "-S", artifact.toString()))
+        }
+        else -> {
+          val debugFile = dir.resolve("$name.debug").toString()
+          run(listOf(objcopy, "--only-keep-debug", artifact.toString(), debugFile))
+          run(
+              listOf(
+                  objcopy,
+                  "--strip-debug",
+                  "--add-gnu-debuglink=$debugFile",
+                  artifact.toString()))
+        }
+      }
+    } catch (e: IOException) {
+      throw MojoExecutionException(
+          "Failed to split the debug information of $name: ${e.message}", e)
+    } catch (e: InterruptedException) {
+      Thread.currentThread().interrupt()
+      throw MojoExecutionException("Interrupted while stripping $name", e)
+    }
+    log.info("Stripped ${Shlex.quote(name)}, debug information kept in $dir")
+  }
+
+  /** Zip the debug information of each platform into [outputDir], keyed by platform. */
+  @Throws(MojoExecutionException::class)
+  fun archive(outputDir: Path, baseName: String): Map<String, Path> {
+    if (!Files.isDirectory(debugDir)) {
+      return emptyMap()
+    }
+    val archives = LinkedHashMap<String, Path>()
+    try {
+      val platforms =
+          Files.list(debugDir).use { stream ->
+            stream.filter { Files.isDirectory(it) }.sorted().collect(Collectors.toList())
+          }
+      for (platformDir in platforms) {
+        val platform = platformDir.fileName.toString()
+        val zip = outputDir.resolve("$baseName-debuginfo-$platform.zip")
+        zip(platformDir, zip)
+        archives[platform] = zip
+      }
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to archive debug information: ${e.message}", e)
+    }
+    return archives
+  }
+
+  @Throws(IOException::class, InterruptedException::class)
+  private fun run(args: List<String>) {
+    log.debug("Running: " + Shlex.quote(args))
+    ProcessPump.capture(args, null, emptyMap())
+  }
+
+  companion object {
+    private fun stem(fileName: String): String {
+      val dot = fileName.lastIndexOf('.')
+      return if (dot > 0) fileName.substring(0, dot) else fileName
+    }
+
+    @Throws(IOException::class)
+    private fun zip(dir: Path, zip: Path) {
+      val files =
+          Files.walk(dir).use { stream ->
+            stream.filter { Files.isRegularFile(it) }.sorted().collect(Collectors.toList())
+          }
+      Files.createDirectories(zip.parent)
+      ZipOutputStream(Files.newOutputStream(zip)).use { out ->
+        for (file in files) {
+          val entry = ZipEntry(dir.relativize(file).toString().replace('\\', '/'))
+          // Reproducible archives for identical debug information.
+          entry.time = 0
+          out.putNextEntry(entry)
+          Files.copy(file, out)
+          out.closeEntry()
+        }
+      }
+    }
+  }
+}
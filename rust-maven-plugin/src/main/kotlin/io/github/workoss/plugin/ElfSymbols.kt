@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/** Reads the exported symbols of an ELF shared library from its `.dynsym` section. */
+object ElfSymbols {
+  private const val SHT_DYNSYM = 11
+  private const val STB_GLOBAL = 1
+  private const val STB_WEAK = 2
+  private const val SHN_UNDEF = 0
+  private const val ELF_MAGIC = 0x7f454c46
+
+  /** Whether [path] starts with the ELF magic number. */
+  @Throws(IOException::class)
+  fun isElf(path: Path): Boolean {
+    val magic = ByteArray(4)
+    Files.newInputStream(path).use { input ->
+      if (input.read(magic) != magic.size) {
+        return false
+      }
+    }
+    return ByteBuffer.wrap(magic).int == ELF_MAGIC
+  }
+
+  /**
+   * Names of the global and weak symbols [path] defines in its dynamic symbol table. Handles
+   * 32 and 64-bit files of either byte order.
+   */
+  @Throws(IOException::class)
+  fun exported(path: Path): Set<String> {
+    val elf =
+        FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        }
+    if (elf.limit() < 52 || elf.getInt(0) != ELF_MAGIC) {
+      throw IOException("$path is not an ELF file")
+    }
+    val is64 = elf.get(4).toInt() == 2
+    elf.order(if (elf.get(5).toInt() == 2) ByteOrder.BIG_ENDIAN else ByteOrder.LITTLE_ENDIAN)
+
+    val sectionTable = if (is64) elf.getLong(0x28) else elf.getInt(0x20).toLong() and 0xffffffffL
+    val sectionSize = elf.getShort(if (is64) 0x3a else 0x2e).toInt() and 0xffff
+    val sectionCount = elf.getShort(if (is64) 0x3c else 0x30).toInt() and 0xffff
+    val sections =
+        (0 until sectionCount).map { Section(elf, sectionTable + it * sectionSize, is64) }
+
+    val symbols = LinkedHashSet<String>()
+    for (dynsym in sections.filter { it.type == SHT_DYNSYM }) {
+      val strings = sections[dynsym.link]
+      val entrySize = if (dynsym.entrySize > 0) dynsym.entrySize else if (is64) 24L else 16L
+      for (i in 1 until dynsym.size / entrySize) {
+        val entry = (dynsym.offset + i * entrySize).toInt()
+        // Elf64_Sym: name, info, other, shndx, value, size; Elf32_Sym: name, value, size, info...
+        val name = elf.getInt(entry).toLong() and 0xffffffffL
+        val info = elf.get(entry + if (is64) 4 else 12).toInt()
+        val shndx = elf.getShort(entry + if (is64) 6 else 14).toInt() and 0xffff
+        val binding = (info shr 4) and 0xf
+        if (shndx != SHN_UNDEF && (binding == STB_GLOBAL || binding == STB_WEAK) && name != 0L) {
+          symbols.add(string(elf, strings.offset + name))
+        }
+      }
+    }
+    return symbols
+  }
+
+  private fun string(elf: ByteBuffer, offset: Long): String {
+    val start = offset.toInt()
+    var end = start
+    while (end < elf.limit() && elf.get(end).toInt() != 0) {
+      end++
+    }
+    val bytes = ByteArray(end - start)
+    for (i in bytes.indices) {
+      bytes[i] = elf.get(start + i)
+    }
+    return String(bytes, Charsets.UTF_8)
+  }
+
+  private class Section(elf: ByteBuffer, header: Long, is64: Boolean) {
+    val type: Int
+    val offset: Long
+    val size: Long
+    val link: Int
+    val entrySize: Long
+
+    init {
+      val at = header.toInt()
+      type = elf.getInt(at + 4)
+      if (is64) {
+        offset = elf.getLong(at + 0x18)
+        size = elf.getLong(at + 0x20)
+        link = elf.getInt(at + 0x28)
+        entrySize = elf.getLong(at + 0x38)
+      } else {
+        offset = elf.getInt(at + 0x10).toLong() and 0xffffffffL
+        size = elf.getInt(at + 0x14).toLong() and 0xffffffffL
+        link = elf.getInt(at + 0x18)
+        entrySize = elf.getInt(at + 0x24).toLong() and 0xffffffffL
+      }
+    }
+  }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+/**
+ * Generates Java 22 Foreign Function & Memory API bindings from the C header cbindgen writes for a
+ * crate.
+ *
+ * Every exported function becomes a `public static` method that invokes a `static final`
+ * `MethodHandle` downcall with `invokeExact`, so the JIT can inline it. The generated class loads
+ * the library through `JniLibLoader` and binds the symbols with `SymbolLookup.loaderLookup()`.
+ *
+ * Scalars map to the matching `ValueLayout` and pointers, arrays and function pointers to
+ * `ADDRESS`. Functions that pass structs or unions by value, or are variadic, are skipped.
+ * `long` and the pointer-sized `size_t` family take the linker's canonical layouts, since `long`
+ * is 32-bit on Windows, and their handles are adapted to Java `long` values.
+ */
+class FfmBindings(
+    private val packageName: String,
+    private val className: String,
+    private val libName: String,
+    private val withPlatformDir: Boolean,
+) {
+  /**
+   * A C type as a `ValueLayout` constant and the Java carrier type of its values. The layout of a
+   * [platform] type depends on the target, so its handle is cast to [javaType].
+   */
+  class CType(val layout: String, val javaType: String, val platform: Boolean = false)
+
+  class Function(
+      val name: String,
+      val returnType: CType?,
+      val params: List<Pair<String, CType>>,
+      val doc: String?,
+  )
+
+  private class Statement(val text: String, val doc: String?)
+
+  /** `typedef` names and struct, union and enum tags declared by the header. */
+  private val aliases = HashMap<String, CType?>()
+
+  /**
+   * Parse [header] and return the source of the bindings class. Declarations that cannot be bound
+   * are reported to [warn].
+   */
+  fun generate(header: String, headerName: String, warn: (String) -> Unit): String {
+    val functions = parse(header, warn)
+    val out = StringBuilder()
+    out.append("// Generated by rust-maven-plugin from $headerName. Do not edit.\n")
+    if (packageName.isNotEmpty()) {
+      out.append("package $packageName;\n\n")
+    }
+    out.append(
+        """
+        |import io.github.workoss.jni.JniLibLoader;
+        |import java.io.IOException;
+        |import java.lang.foreign.FunctionDescriptor;
+        |import java.lang.foreign.Linker;
+        |import java.lang.foreign.MemorySegment;
+        |import java.lang.foreign.SymbolLookup;
+        |import java.lang.foreign.ValueLayout;
+        |import java.lang.invoke.MethodHandle;
+        |import java.lang.invoke.MethodHandles;
+        |import java.lang.invoke.MethodType;
+        |
+        |import static java.lang.foreign.ValueLayout.*;
+        |
+        |/**
+        | * Downcalls into the native library {@code $libName}, generated from {@code $headerName}.
+        | */
+        |public final class $className {
+        |
+        |    private static final Linker LINKER = Linker.nativeLinker();
+        |
+        |    private static final ValueLayout C_LONG = (ValueLayout) LINKER.canonicalLayouts().get("long");
+        |
+        |    private static final ValueLayout C_SIZE_T = (ValueLayout) LINKER.canonicalLayouts().get("size_t");
+        |
+        |    private static final SymbolLookup LOOKUP = lookup();
+        |
+        |""".trimMargin())
+    for (function in functions) {
+      val descriptor = StringBuilder()
+      val layouts = function.params.map { it.second.layout }
+      if (function.returnType == null) {
+        descriptor.append("FunctionDescriptor.ofVoid(").append(layouts.joinToString(", "))
+      } else {
+        descriptor.append("FunctionDescriptor.of(")
+        descriptor.append((listOf(function.returnType.layout) + layouts).joinToString(", "))
+      }
+      descriptor.append(")")
+      val types = listOfNotNull(function.returnType) + function.params.map { it.second }
+      if (types.any { it.platform }) {
+        // Cast the target-sized carriers to the `long` of the Java method.
+        val carriers = function.params.map { "${it.second.javaType}.class" }
+        val returnCarrier = "${function.returnType?.javaType ?: "void"}.class"
+        val methodType = (listOf(returnCarrier) + carriers).joinToString(", ")
+        descriptor.append(",\n                    MethodType.methodType($methodType)")
+      }
+      out.append("    private static final MethodHandle ${handleName(function.name)} =\n")
+      out.append("            downcall(\"${function.name}\", $descriptor);\n\n")
+    }
+    out.append(
+        """
+        |    private $className() {
+        |    }
+        |
+        |    private static SymbolLookup lookup() {
+        |        try {
+        |            ClassLoader classLoader = $className.class.getClassLoader();
+        |            JniLibLoader.getInstance()
+        |                    .loadLibrary(classLoader, "$libName", $withPlatformDir);
+        |        } catch (IOException e) {
+        |            throw new ExceptionInInitializerError(e);
+        |        }
+        |        return SymbolLookup.loaderLookup();
+        |    }
+        |
+        |    private static MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+        |        MemorySegment symbol = LOOKUP.find(name)
+        |                .orElseThrow(() -> new UnsatisfiedLinkError("Symbol not found: " + name));
+        |        return LINKER.downcallHandle(symbol, descriptor);
+        |    }
+        |
+        |    private static MethodHandle downcall(String name, FunctionDescriptor descriptor, MethodType type) {
+        |        return MethodHandles.explicitCastArguments(downcall(name, descriptor), type);
+        |    }
+        |
+        |    private static RuntimeException rethrow(Throwable t) {
+        |        if (t instanceof RuntimeException) {
+        |            return (RuntimeException) t;
+        |        }
+        |        if (t instanceof Error) {
+        |            throw (Error) t;
+        |        }
+        |        return new IllegalStateException(t);
+        |    }
+        |""".trimMargin())
+    for (function in functions) {
+      out.append("\n")
+      if (function.doc != null) {
+        out.append("    /**\n")
+        javadoc(function.doc).lines().forEach { out.append("     * $it".trimEnd()).append("\n") }
+        out.append("     */\n")
+      }
+      val returnType = function.returnType?.javaType ?: "void"
+      val params = function.params.joinToString(", ") { "${it.second.javaType} ${it.first}" }
+      val args = function.params.joinToString(", ") { it.first }
+      val invoke = "${handleName(function.name)}.invokeExact($args);"
+      out.append("    public static $returnType ${javaName(function.name)}($params) {\n")
+      out.append("        try {\n")
+      if (function.returnType == null) {
+        out.append("            $invoke\n")
+      } else {
+        out.append("            return ($returnType) $invoke\n")
+      }
+      out.append("        } catch (Throwable t) {\n")
+      out.append("            throw rethrow(t);\n")
+      out.append("        }\n")
+      out.append("    }\n")
+    }
+    out.append("}\n")
+    return out.toString()
+  }
+
+  /** The functions [header] declares, in declaration order. */
+  fun parse(header: String, warn: (String) -> Unit): List<Function> {
+    val functions = LinkedHashMap<String, Function>()
+    val javaNames = HashSet<String>()
+    for (statement in statements(header)) {
+      val text = statement.text
+      if (text.startsWith("typedef ")) {
+        typedef(text.removePrefix("typedef "))
+        continue
+      }
+      val tag = TAG.find(text)
+      if (tag != null && text.contains('{')) {
+        declareTag(tag.groupValues[1], tag.groupValues[2])
+        continue
+      }
+      val match = FUNCTION.matchEntire(text) ?: continue
+      val name = match.groupValues[2]
+      if (functions.containsKey(name)) {
+        // Declared again in another `#if` branch.
+        continue
+      }
+      val function = function(name, match.groupValues[1], match.groupValues[3], statement.doc)
+      when {
+        function == null -> warn("Skipping `$name`: unsupported signature `$text`")
+        !javaNames.add(javaName(name)) -> warn("Skipping `$name`: duplicate Java name")
+        else -> functions[name] = function
+      }
+    }
+    return ArrayList(functions.values)
+  }
+
+  private fun function(name: String, returns: String, paramList: String, doc: String?): Function? {
+    val returnText = returns.replace(Regex("\\bextern\\b"), "").trim()
+    val returnType =
+        if (strip(returnText) == "void") null else (resolve(returnText) ?: return null)
+    val params = ArrayList<Pair<String, CType>>()
+    val declarations = split(paramList).map { it.trim() }
+    if (declarations != listOf("") && declarations != listOf("void")) {
+      for ((i, declaration) in declarations.withIndex()) {
+        if (declaration == "...") {
+          return null
+        }
+        val (paramName, type) = param(declaration) ?: return null
+        var javaParam = javaName(paramName ?: "arg$i")
+        // `t` is the catch variable of the generated method.
+        val taken = javaParam == "t" || params.any { it.first == javaParam }
+        if (javaParam in JAVA_KEYWORDS || taken) {
+          javaParam += "_"
+        }
+        params.add(Pair(javaParam, type))
+      }
+    }
+    return Function(name, returnType, params, doc)
+  }
+
+  /** Name and type of one parameter declaration. */
+  private fun param(declaration: String): Pair<String?, CType>? {
+    if (declaration.contains('(')) {
+      // Function pointer, e.g. `void (*callback)(int32_t)`.
+      val name = Regex("\\(\\s*\\*\\s*(\\w+)\\s*\\)").find(declaration)?.groupValues?.get(1)
+      return Pair(name, POINTER)
+    }
+    var text = declaration
+    var array = false
+    if (text.contains('[')) {
+      array = true
+      text = text.substring(0, text.indexOf('['))
+    }
+    val tokens = text.replace("*", " * ").trim().split(Regex("\\s+"))
+    val last = tokens.last()
+    // Unnamed unless the last word is an identifier that does not complete a type name, as in
+    // `unsigned int`.
+    val named =
+        tokens.size > 1 &&
+            IDENTIFIER.matches(last) &&
+            !(last in TYPE_WORDS && !text.contains('*') && resolve(text) != null)
+    val name = if (named) last else null
+    val typeText = if (named) tokens.dropLast(1).joinToString(" ") else tokens.joinToString(" ")
+    val type = if (array) POINTER else resolve(typeText) ?: return null
+    return Pair(name, type)
+  }
+
+  private fun typedef(text: String) {
+    if (text.contains('(')) {
+      // Function pointer type, e.g. `typedef void (*Callback)(int32_t)`.
+      Regex("\\(\\s*\\*\\s*(\\w+)\\s*\\)").find(text)?.let { aliases[it.groupValues[1]] = POINTER }
+      return
+    }
+    val name = Regex("(\\w+)\\s*(\\[[^]]*])?$").find(text)?.groupValues?.get(1) ?: return
+    val body = text.indexOf('{')
+    if (body >= 0) {
+      // `typedef struct { ... } Name`, `typedef enum { ... } Name`
+      val kind = text.substring(0, body).trim().split(Regex("\\s+")).first()
+      aliases[name] = if (kind == "enum") INT else null
+      TAG.find(text)?.let { declareTag(it.groupValues[1], it.groupValues[2]) }
+      return
+    }
+    val target = text.substring(0, text.length - name.length).trim()
+    val tag = TAG.matchEntire(target)
+    aliases[name] =
+        when {
+          text.contains('[') -> POINTER
+          tag != null && tag.groupValues[1] == "enum" -> INT
+          // Opaque or by-value struct or union, only usable behind a pointer.
+          tag != null -> aliases[tag.groupValues[2]]
+          else -> resolve(target)
+        }
+  }
+
+  private fun declareTag(kind: String, name: String) {
+    if (!aliases.containsKey(name)) {
+      aliases[name] = if (kind == "enum") INT else null
+    }
+  }
+
+  /** The type named by [text], or `null` if it cannot be passed by value. */
+  private fun resolve(text: String): CType? {
+    if (text.contains('*')) {
+      return POINTER
+    }
+    val name = strip(text)
+    return BUILTINS[name] ?: aliases[name]
+  }
+
+  /** [text] without qualifiers and `struct`, `union` or `enum` keywords. */
+  private fun strip(text: String): String {
+    return text
+        .trim()
+        .split(Regex("\\s+"))
+        .filter { it !in QUALIFIERS && it != "struct" && it != "union" && it != "enum" }
+        .joinToString(" ")
+  }
+
+  companion object {
+    private val POINTER = CType("ADDRESS", "MemorySegment")
+    private val INT = CType("JAVA_INT", "int")
+
+    private val BUILTINS: Map<String, CType> =
+        HashMap<String, CType>().apply {
+          val bool = CType("JAVA_BOOLEAN", "boolean")
+          val byte = CType("JAVA_BYTE", "byte")
+          val short = CType("JAVA_SHORT", "short")
+          val long = CType("JAVA_LONG", "long")
+          val cLong = CType("C_LONG", "long", true)
+          val sizeT = CType("C_SIZE_T", "long", true)
+          put("bool", bool)
+          put("_Bool", bool)
+          listOf("char", "signed char", "unsigned char", "int8_t", "uint8_t").forEach {
+            put(it, byte)
+          }
+          listOf("short", "unsigned short", "int16_t", "uint16_t", "char16_t").forEach {
+            put(it, short)
+          }
+          listOf("int", "unsigned", "unsigned int", "int32_t", "uint32_t", "char32_t").forEach {
+            put(it, INT)
+          }
+          listOf("long long", "unsigned long long", "int64_t", "uint64_t").forEach { put(it, long) }
+          listOf("long", "unsigned long").forEach { put(it, cLong) }
+          listOf("size_t", "ssize_t", "ptrdiff_t", "intptr_t", "uintptr_t").forEach {
+            put(it, sizeT)
+          }
+          put("float", CType("JAVA_FLOAT", "float"))
+          put("double", CType("JAVA_DOUBLE", "double"))
+        }
+
+    private val QUALIFIERS = setOf("const", "volatile", "restrict", "__restrict")
+    private val TYPE_WORDS =
+        setOf("char", "short", "int", "long", "signed", "unsigned", "float", "double", "void")
+    private val JAVA_KEYWORDS =
+        setOf(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class",
+            "const", "continue", "default", "do", "double", "else", "enum", "extends", "final",
+            "finally", "float", "for", "goto", "if", "implements", "import", "instanceof", "int",
+            "interface", "long", "native", "new", "package", "private", "protected", "public",
+            "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false",
+            "null", "var", "record", "yield")
+
+    private val IDENTIFIER = Regex("[A-Za-z_]\\w*")
+    private val TAG = Regex("^(struct|union|enum)\\s+(\\w+)")
+    private val FUNCTION = Regex("^(.*?[\\w*\\s])(\\w+)\\s*\\((.*)\\)$")
+
+    /** `MethodHandle` field of the C function [name]. */
+    private fun handleName(name: String): String =
+        name.replace(Regex("([a-z0-9])([A-Z])"), "$1_$2").uppercase() + "\$MH"
+
+    /** camelCase of a snake_case C identifier. */
+    private fun javaName(name: String): String {
+      val parts = name.split('_').filter { it.isNotEmpty() }
+      if (parts.isEmpty()) {
+        return name
+      }
+      return parts.first() +
+          parts.drop(1).joinToString("") { it.substring(0, 1).uppercase() + it.substring(1) }
+    }
+
+    /** Default class name for the library [libName], e.g. `FooBar` for `foo-bar`. */
+    fun className(libName: String): String =
+        libName.split('-', '_').filter { it.isNotEmpty() }.joinToString("") {
+          it.substring(0, 1).uppercase() + it.substring(1)
+        }
+
+    private fun javadoc(doc: String): String =
+        doc.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("*/", "*&#47;")
+
+    /** Split a parameter list on the commas outside of nested parentheses. */
+    private fun split(params: String): List<String> {
+      val parts = ArrayList<String>()
+      var depth = 0
+      var start = 0
+      for ((i, c) in params.withIndex()) {
+        when (c) {
+          '(' -> depth++
+          ')' -> depth--
+          ',' ->
+              if (depth == 0) {
+                parts.add(params.substring(start, i))
+                start = i + 1
+              }
+        }
+      }
+      parts.add(params.substring(start))
+      return parts
+    }
+
+    /**
+     * Top-level declarations of [header] with whitespace collapsed, each with the doc comment
+     * (`/** */` or `///`) right before it. Preprocessor lines are dropped, so both branches of
+     * every `#if` are seen, and `extern "C" {` blocks are flattened.
+     */
+    private fun statements(header: String): List<Statement> {
+      val statements = ArrayList<Statement>()
+      val current = StringBuilder()
+      var doc: StringBuilder? = null
+      var depth = 0
+      var lineStart = true
+      var i = 0
+      while (i < header.length) {
+        val c = header[i]
+        when {
+          header.startsWith("//", i) -> {
+            val end = header.indexOf('\n', i).let { if (it < 0) header.length else it }
+            if (header.startsWith("///", i) && current.isBlank()) {
+              doc = doc ?: StringBuilder()
+              doc.append(header.substring(i + 3, end).trim()).append('\n')
+            }
+            i = end
+            continue
+          }
+          header.startsWith("/*", i) -> {
+            val end = header.indexOf("*/", i + 2).let { if (it < 0) header.length else it }
+            if (header.startsWith("/**", i) && current.isBlank()) {
+              doc = StringBuilder()
+              header.substring(i + 3, end).lines().forEach {
+                doc!!.append(it.trim().removePrefix("*").trim()).append('\n')
+              }
+            }
+            i = end + 2
+            continue
+          }
+          c == '#' && lineStart -> {
+            // Directive, including `\` continuation lines.
+            while (i < header.length && header[i] != '\n') {
+              i += if (header[i] == '\\') 2 else 1
+            }
+            continue
+          }
+          c == '{' -> {
+            if (depth == 0 && current.trim().toString() == "extern \"C\"") {
+              current.setLength(0)
+              i++
+              continue
+            }
+            depth++
+            current.append(c)
+          }
+          c == '}' -> {
+            if (depth == 0) {
+              // End of an `extern "C"` block.
+              i++
+              continue
+            }
+            depth--
+            current.append(c)
+            val text = current.trim()
+            if (depth == 0 && TAG.find(text) == null && !text.startsWith("typedef")) {
+              // Inline function definition.
+              current.setLength(0)
+              doc = null
+            }
+          }
+          c == ';' && depth == 0 -> {
+            val text = current.trim().replace(Regex("\\s+"), " ")
+            if (text.isNotEmpty()) {
+              statements.add(Statement(text, doc?.toString()?.trim()?.ifEmpty { null }))
+            }
+            current.setLength(0)
+            doc = null
+          }
+          else -> current.append(c)
+        }
+        if (c == '\n') {
+          lineStart = true
+        } else if (!c.isWhitespace()) {
+          lineStart = false
+        }
+        i++
+      }
+      return statements
+    }
+  }
+}
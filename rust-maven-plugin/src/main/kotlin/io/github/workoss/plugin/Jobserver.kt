@@ -0,0 +1,127 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import io.github.workoss.jni.OS
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.Path
+import org.apache.maven.plugin.logging.Log
+
+/**
+ * A GNU make jobserver shared by every cargo process started during the reactor build.
+ *
+ * The pool is a named pipe holding one byte per job token, advertised to cargo through
+ * `CARGO_MAKEFLAGS=--jobserver-auth=fifo:<path>`. Every cargo process is started only after taking
+ * one token for its implicit job and gives it back when it exits, and cargo itself takes further
+ * tokens from the pipe for each additional rustc or build script it runs in parallel. Concurrent
+ * modules of a `mvn -T` build therefore share [tokens] jobs instead of each using every core.
+ */
+class Jobserver
+private constructor(
+    private val fifo: Path,
+    val tokens: Int,
+    // Keeps the pipe open so tokens survive while no cargo process is attached.
+    private val keepAlive: RandomAccessFile,
+) {
+  private val input = FileInputStream(fifo.toFile())
+  private val output = FileOutputStream(fifo.toFile())
+
+  init {
+    repeat(tokens) { output.write(TOKEN) }
+    output.flush()
+  }
+
+  /** Environment that makes cargo a client of this jobserver. */
+  val environment: Map<String, String>
+    get() = mapOf("CARGO_MAKEFLAGS" to "-j --jobserver-auth=fifo:$fifo")
+
+  /** Block until a token is available and take it. */
+  @Throws(IOException::class)
+  fun acquire() {
+    if (input.read() < 0) {
+      throw IOException("Jobserver pipe $fifo was closed")
+    }
+  }
+
+  /** Return a token taken by [acquire]. */
+  @Throws(IOException::class)
+  fun release() {
+    synchronized(output) {
+      output.write(TOKEN)
+      output.flush()
+    }
+  }
+
+  private fun close() {
+    try {
+      input.close()
+      output.close()
+      keepAlive.close()
+      Files.deleteIfExists(fifo)
+      Files.deleteIfExists(fifo.parent)
+    } catch (_: IOException) {
+      // Best effort cleanup on exit.
+    }
+  }
+
+  companion object {
+    private const val TOKEN = '+'.code
+
+    @Volatile private var instance: Jobserver? = null
+
+    /**
+     * The reactor-wide jobserver, created with [jobs] tokens by the first caller. Returns `null`
+     * where a fifo jobserver cannot be created, in which case cargo falls back to its own `-j`.
+     */
+    @Synchronized
+    fun shared(jobs: Int, log: Log): Jobserver? {
+      val current = instance
+      if (current != null) {
+        if (current.tokens != jobs) {
+          log.debug("Jobserver already running with ${current.tokens} tokens, ignoring jobs=$jobs")
+        }
+        return current
+      }
+      if (OS.isWindows) {
+        log.warn("The cargo jobserver is not supported on Windows, builds are not throttled")
+        return null
+      }
+      return try {
+        val dir = Files.createTempDirectory("rust-maven-jobserver")
+        val fifo = dir.resolve("fifo")
+        val mkfifo = ProcessBuilder("mkfifo", "-m", "600", fifo.toString()).inheritIO().start()
+        if (mkfifo.waitFor() != 0) {
+          throw IOException("mkfifo exited with code ${mkfifo.exitValue()}")
+        }
+        val jobserver = Jobserver(fifo, jobs, RandomAccessFile(fifo.toFile(), "rw"))
+        Runtime.getRuntime().addShutdownHook(Thread(jobserver::close, "rust-maven-jobserver"))
+        log.info("Sharing $jobs cargo jobs across the reactor through $fifo")
+        instance = jobserver
+        jobserver
+      } catch (e: IOException) {
+        log.warn("Failed to create the cargo jobserver, builds are not throttled: ${e.message}")
+        null
+      } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        null
+      }
+    }
+  }
+}
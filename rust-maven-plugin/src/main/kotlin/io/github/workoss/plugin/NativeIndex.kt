@@ -0,0 +1,204 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import io.github.workoss.jni.JniLibLoader
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Properties
+import java.util.TimeZone
+import java.util.TreeMap
+import java.util.jar.Attributes
+import java.util.jar.JarEntry
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+import java.util.stream.Collectors
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+
+/**
+ * The `META-INF/rust-maven/native/<platform>.properties` index `JniLibLoader` consults before
+ * falling back to its naming convention. Each copy directory has one index per platform, mapping
+ * library names to their resource paths relative to that directory.
+ */
+object NativeIndex {
+  private const val SUFFIX = ".properties"
+
+  /** Entry time of the platform JARs without `project.build.outputTimestamp`, 2000-01-01. */
+  const val DEFAULT_TIMESTAMP = 946684800000L
+
+  /**
+   * Record that library [libName] of [platform] was copied to [path] under [copyRoot], along with
+   * the names of the bundled libraries it depends on.
+   */
+  @Synchronized
+  @Throws(IOException::class)
+  fun record(
+      copyRoot: Path,
+      platform: String,
+      libName: String,
+      path: Path,
+      dependencies: Array<String> = emptyArray(),
+  ) {
+    val index = copyRoot.resolve(JniLibLoader.NATIVE_INDEX_DIR).resolve(platform + SUFFIX)
+    val entries = TreeMap(read(index))
+    val key = libName.replace("-", "_")
+    entries[key] = copyRoot.relativize(path).toString().replace('\\', '/')
+    val names = dependencies.map { it.trim() }.filter { it.isNotEmpty() }
+    if (names.isEmpty()) {
+      entries.remove(key + JniLibLoader.DEPENDENCIES_SUFFIX)
+    } else {
+      entries[key + JniLibLoader.DEPENDENCIES_SUFFIX] = names.joinToString(",")
+    }
+    Files.createDirectories(index.parent)
+    // Sorted and without the timestamp Properties.store adds, so the index is reproducible.
+    val lines = entries.map { (key, value) -> "${escape(key)}=${escape(value)}" }
+    Files.write(index, listOf("# Generated by rust-maven-plugin") + lines)
+  }
+
+  /**
+   * Package the indexed libraries of each platform found under [copyRoot], including those copied
+   * into variant subdirectories, into `<baseName>-<platform>.jar` in [outputDir]. With [stored],
+   * the libraries are not compressed. Every entry gets [timestamp], so the JARs are reproducible.
+   */
+  @Throws(IOException::class)
+  fun packagePlatformJars(
+      copyRoot: Path,
+      outputDir: Path,
+      baseName: String,
+      stored: Boolean = false,
+      timestamp: Long = DEFAULT_TIMESTAMP,
+  ): Map<String, Path> {
+    if (!Files.isDirectory(copyRoot)) {
+      return emptyMap()
+    }
+    val indexes =
+        Files.walk(copyRoot).use { stream ->
+          stream
+              .filter { it.fileName.toString().endsWith(SUFFIX) && isIndex(copyRoot, it) }
+              .sorted()
+              .collect(Collectors.toList())
+        }
+    // Platform -> entry name -> file.
+    val platforms = TreeMap<String, TreeMap<String, Path>>()
+    for (index in indexes) {
+      val platform = index.fileName.toString().removeSuffix(SUFFIX)
+      val root = index.parent.parent.parent.parent
+      val entries = platforms.getOrPut(platform) { TreeMap() }
+      entries[entryName(copyRoot, index)] = index
+      for (path in read(index).values) {
+        val file = root.resolve(path)
+        if (Files.isRegularFile(file)) {
+          entries[entryName(copyRoot, file)] = file
+        }
+      }
+    }
+    val jars = LinkedHashMap<String, Path>()
+    Files.createDirectories(outputDir)
+    for ((platform, entries) in platforms) {
+      val jar = outputDir.resolve("$baseName-$platform.jar")
+      writeJar(jar, entries, stored, timestamp)
+      jars[platform] = jar
+    }
+    return jars
+  }
+
+  @Throws(IOException::class)
+  private fun writeJar(jar: Path, entries: Map<String, Path>, stored: Boolean, timestamp: Long) {
+    val manifest = Manifest()
+    manifest.mainAttributes[Attributes.Name.MANIFEST_VERSION] = "1.0"
+    // ZIP stores local time: shift it so every time zone writes the same bytes.
+    val time = timestamp - TimeZone.getDefault().getOffset(timestamp)
+    // JarOutputStream(out, manifest) would stamp the manifest with the current time.
+    JarOutputStream(Files.newOutputStream(jar)).use { out ->
+      val directories = HashSet<String>()
+      directories.add("META-INF/")
+      out.putNextEntry(entry("META-INF/", time))
+      out.closeEntry()
+      out.putNextEntry(entry(JarFile.MANIFEST_NAME, time))
+      manifest.write(out)
+      out.closeEntry()
+      for ((name, file) in entries) {
+        var slash = name.indexOf('/')
+        while (slash >= 0) {
+          val directory = name.substring(0, slash + 1)
+          if (directories.add(directory)) {
+            out.putNextEntry(entry(directory, time))
+            out.closeEntry()
+          }
+          slash = name.indexOf('/', slash + 1)
+        }
+        val entry = entry(name, time)
+        if (stored && !file.fileName.toString().endsWith(SUFFIX)) {
+          // STORED entries need their size and CRC up front.
+          entry.method = ZipEntry.STORED
+          entry.size = Files.size(file)
+          entry.compressedSize = entry.size
+          entry.crc = crc32(file)
+        }
+        out.putNextEntry(entry)
+        Files.copy(file, out)
+        out.closeEntry()
+      }
+    }
+  }
+
+  private fun entry(name: String, time: Long): JarEntry {
+    val entry = JarEntry(name)
+    entry.time = time
+    return entry
+  }
+
+  @Throws(IOException::class)
+  private fun crc32(file: Path): Long {
+    val crc = CRC32()
+    val buffer = ByteArray(64 * 1024)
+    Files.newInputStream(file).use { input ->
+      while (true) {
+        val read = input.read(buffer)
+        if (read < 0) {
+          break
+        }
+        crc.update(buffer, 0, read)
+      }
+    }
+    return crc.value
+  }
+
+  private fun isIndex(copyRoot: Path, file: Path): Boolean {
+    return copyRoot.relativize(file.parent).toString().replace('\\', '/').let {
+      it == JniLibLoader.NATIVE_INDEX_DIR || it.endsWith("/" + JniLibLoader.NATIVE_INDEX_DIR)
+    }
+  }
+
+  private fun entryName(copyRoot: Path, file: Path): String =
+      copyRoot.relativize(file).toString().replace('\\', '/')
+
+  @Throws(IOException::class)
+  private fun read(index: Path): Map<String, String> {
+    if (!Files.isRegularFile(index)) {
+      return emptyMap()
+    }
+    val properties = Properties()
+    Files.newInputStream(index).use { properties.load(it) }
+    return properties.stringPropertyNames().associateWith { properties.getProperty(it) }
+  }
+
+  private fun escape(value: String): String =
+      value.replace("\\", "\\\\").replace(":", "\\:").replace("=", "\\=").replace(" ", "\\ ")
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.stream.Collectors
+
+/** A `native` method of a compiled class and the JNI symbols the JVM binds it to. */
+class NativeMethod(
+    /** Binary name with `/` separators, e.g. `com/example/Foo$Inner`. */
+    val className: String,
+    val name: String,
+    val descriptor: String,
+) {
+  /** `Java_<class>_<method>`. */
+  val shortSymbol: String
+    get() = "Java_" + mangle(className) + "_" + mangle(name)
+
+  /** The short symbol followed by `__<argument types>`, as needed for overloads. */
+  val longSymbol: String
+    get() = shortSymbol + "__" + mangle(descriptor.substring(1, descriptor.indexOf(')')))
+
+  override fun toString(): String = "${className.replace('/', '.')}.$name$descriptor"
+
+  companion object {
+    private const val ACC_NATIVE = 0x0100
+
+    /** The `native` methods of every class file under [classesDir], sorted by class and name. */
+    @Throws(IOException::class)
+    fun scan(classesDir: Path): List<NativeMethod> {
+      if (!Files.isDirectory(classesDir)) {
+        return emptyList()
+      }
+      val classFiles =
+          Files.walk(classesDir).use { stream ->
+            stream
+                .filter { it.fileName.toString().endsWith(".class") }
+                .filter { it.fileName.toString() != "module-info.class" }
+                .collect(Collectors.toList())
+          }
+      val methods = ArrayList<NativeMethod>()
+      for (classFile in classFiles) {
+        try {
+          methods.addAll(parse(Files.readAllBytes(classFile)))
+        } catch (e: IOException) {
+          throw IOException("Failed to parse $classFile: ${e.message}", e)
+        }
+      }
+      methods.sortWith(compareBy({ it.className }, { it.name }, { it.descriptor }))
+      return methods
+    }
+
+    /** The `native` methods declared by one class file. */
+    @Throws(IOException::class)
+    fun parse(bytes: ByteArray): List<NativeMethod> {
+      val input = DataInputStream(ByteArrayInputStream(bytes))
+      if (input.readInt() != 0xcafebabe.toInt()) {
+        throw IOException("Not a class file")
+      }
+      input.readUnsignedShort() // minor_version
+      input.readUnsignedShort() // major_version
+      val count = input.readUnsignedShort()
+      val utf8 = arrayOfNulls<String>(count)
+      val classNames = IntArray(count)
+      var index = 1
+      while (index < count) {
+        when (val tag = input.readUnsignedByte()) {
+          1 -> utf8[index] = input.readUTF()
+          7 -> classNames[index] = input.readUnsignedShort()
+          8, 16, 19, 20 -> input.skipBytes(2)
+          15 -> input.skipBytes(3)
+          3, 4, 9, 10, 11, 12, 17, 18 -> input.skipBytes(4)
+          5, 6 -> {
+            // Longs and doubles take two constant pool slots.
+            input.skipBytes(8)
+            index++
+          }
+          else -> throw IOException("Unknown constant pool tag $tag")
+        }
+        index++
+      }
+      input.readUnsignedShort() // access_flags
+      val className = utf8[classNames[input.readUnsignedShort()]]!!
+      input.readUnsignedShort() // super_class
+      input.skipBytes(2 * input.readUnsignedShort()) // interfaces
+      skipMembers(input) // fields
+      val methods = ArrayList<NativeMethod>()
+      repeat(input.readUnsignedShort()) {
+        val access = input.readUnsignedShort()
+        val name = utf8[input.readUnsignedShort()]!!
+        val descriptor = utf8[input.readUnsignedShort()]!!
+        skipAttributes(input)
+        if (access and ACC_NATIVE != 0) {
+          methods.add(NativeMethod(className, name, descriptor))
+        }
+      }
+      return methods
+    }
+
+    private fun skipMembers(input: DataInputStream) {
+      repeat(input.readUnsignedShort()) {
+        input.skipBytes(6)
+        skipAttributes(input)
+      }
+    }
+
+    private fun skipAttributes(input: DataInputStream) {
+      repeat(input.readUnsignedShort()) {
+        input.skipBytes(2)
+        input.skipBytes(input.readInt())
+      }
+    }
+
+    /** Escapes [name] as the JNI specification prescribes for native method symbols. */
+    fun mangle(name: String): String {
+      val out = StringBuilder()
+      for (c in name) {
+        when {
+          c == '/' -> out.append('_')
+          c == '_' -> out.append("_1")
+          c == ';' -> out.append("_2")
+          c == '[' -> out.append("_3")
+          c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' -> out.append(c)
+          else -> out.append("_0").append(String.format("%04x", c.code))
+        }
+      }
+      return out.toString()
+    }
+  }
+}
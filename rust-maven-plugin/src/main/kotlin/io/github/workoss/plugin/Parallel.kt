@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+
+/** Runs independent cargo tasks of one execution concurrently. */
+object Parallel {
+  /**
+   * Apply [action] to every item on up to [threads] threads and wait for all of them. Every task
+   * runs to completion even if another one fails; the first failure is then rethrown.
+   */
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  fun <T, R> map(items: List<T>, threads: Int, action: (T) -> R): List<R> {
+    if (items.size <= 1 || threads <= 1) {
+      return items.map(action)
+    }
+    val executor = Executors.newFixedThreadPool(minOf(threads, items.size))
+    try {
+      val futures: List<Future<R>> = items.map { executor.submit<R> { action(it) } }
+      var failure: Throwable? = null
+      val results = ArrayList<R>()
+      for (future in futures) {
+        try {
+          results.add(future.get())
+        } catch (e: ExecutionException) {
+          if (failure == null) {
+            failure = e.cause
+          } else {
+            failure.addSuppressed(e.cause)
+          }
+        } catch (e: InterruptedException) {
+          Thread.currentThread().interrupt()
+          throw MojoExecutionException("Interrupted while waiting for cargo", e)
+        }
+      }
+      when (failure) {
+        null -> return results
+        is MojoExecutionException -> throw failure
+        is MojoFailureException -> throw failure
+        else -> throw MojoExecutionException(failure.message, failure)
+      }
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+}
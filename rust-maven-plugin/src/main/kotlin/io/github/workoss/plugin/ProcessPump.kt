@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.BufferedReader
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.nio.charset.StandardCharsets
+import java.nio.file.Path
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import org.apache.maven.plugin.logging.Log
+
+/**
+ * Drains the output of a child process on a pump thread shared by every cargo invocation of the
+ * build.
+ *
+ * The last lines are always kept in a bounded ring buffer. In quiet mode nothing is logged while
+ * the command runs and the buffered tail is only printed when the command fails. An optional
+ * listener sees every line, e.g. to parse results out of the output, and returns whether it is
+ * logged.
+ */
+class ProcessPump(
+    private val log: Log,
+    private val quiet: Boolean,
+    tailLines: Int,
+    private val prefix: String = "",
+    private val listener: ((String) -> Boolean)? = null,
+) {
+  private val tail = arrayOfNulls<String>(tailLines.coerceAtLeast(1))
+  private var next = 0
+  private var lineCount = 0L
+
+  /** Start draining [input] on the shared pump executor. */
+  fun start(input: InputStream): Future<*> {
+    return executor.submit { drain(input) }
+  }
+
+  /**
+   * Wait for the pump started for [future] to reach the end of the stream, so no output is lost
+   * before the exit code is checked.
+   */
+  @Throws(IOException::class, InterruptedException::class)
+  fun join(future: Future<*>) {
+    try {
+      future.get()
+    } catch (e: ExecutionException) {
+      val cause = e.cause
+      if (cause is IOException) {
+        throw cause
+      }
+      throw IOException("Failed to read process output", cause)
+    }
+  }
+
+  /** Number of lines read so far. */
+  @get:Synchronized
+  val lines: Long
+    get() = lineCount
+
+  /** The last lines read, oldest first. */
+  @Synchronized
+  fun tail(): List<String> {
+    val size = minOf(lineCount, tail.size.toLong()).toInt()
+    val start = if (lineCount > tail.size) next else 0
+    return (0 until size).map { tail[(start + it) % tail.size]!! }
+  }
+
+  /** Print the buffered tail through [log] at error level. */
+  fun logTail() {
+    val tail = tail()
+    if (tail.isEmpty()) {
+      return
+    }
+    if (lineCount > tail.size) {
+      log.error("... ${lineCount - tail.size} earlier lines omitted")
+    }
+    tail.forEach { log.error(prefix + it) }
+  }
+
+  private fun drain(input: InputStream) {
+    BufferedReader(InputStreamReader(input, StandardCharsets.UTF_8)).use { reader ->
+      while (true) {
+        val line = reader.readLine() ?: break
+        record(line)
+        val echo = listener?.invoke(line) ?: true
+        if (!quiet && echo) {
+          log.info(prefix + line)
+        }
+      }
+    }
+  }
+
+  @Synchronized
+  private fun record(line: String) {
+    tail[next] = line
+    next = (next + 1) % tail.size
+    lineCount++
+  }
+
+  companion object {
+    /**
+     * Run a short-lived command and return its output lines.
+     *
+     * @throws IOException if the command cannot be started or exits with a non-zero code.
+     */
+    @Throws(IOException::class, InterruptedException::class)
+    fun capture(
+        args: List<String>,
+        directory: Path?,
+        environment: Map<String, String>,
+    ): List<String> {
+      val processBuilder = ProcessBuilder(args)
+      processBuilder.redirectErrorStream(true)
+      processBuilder.environment().putAll(environment)
+      if (directory != null) {
+        processBuilder.directory(directory.toFile())
+      }
+      val process = processBuilder.start()
+      val lines = ArrayList<String>()
+      val output = executor.submit {
+        BufferedReader(InputStreamReader(process.inputStream, StandardCharsets.UTF_8)).use {
+          it.lines().forEach { line -> lines.add(line) }
+        }
+      }
+      val exitCode = process.waitFor()
+      try {
+        output.get()
+      } catch (e: ExecutionException) {
+        throw IOException("Failed to read output of " + Shlex.quote(args), e.cause)
+      }
+      if (exitCode != 0) {
+        throw IOException(
+            Shlex.quote(args) +
+                " failed with exit code " +
+                exitCode +
+                ": " +
+                lines.joinToString("\n"))
+      }
+      return lines
+    }
+
+    /**
+     * Virtual threads when running on a JDK that has them, otherwise a cached pool of daemon
+     * threads that are reclaimed once idle.
+     */
+    private val executor: ExecutorService by lazy { virtualThreadExecutor() ?: daemonExecutor() }
+
+    private fun virtualThreadExecutor(): ExecutorService? {
+      return try {
+        Executors::class.java.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+            as ExecutorService
+      } catch (_: ReflectiveOperationException) {
+        null
+      }
+    }
+
+    private fun daemonExecutor(): ExecutorService {
+      val counter = AtomicInteger()
+      val factory = ThreadFactory { runnable ->
+        val thread = Thread(runnable, "cargo-output-pump-" + counter.incrementAndGet())
+        thread.isDaemon = true
+        thread
+      }
+      return Executors.newCachedThreadPool(factory)
+    }
+  }
+}
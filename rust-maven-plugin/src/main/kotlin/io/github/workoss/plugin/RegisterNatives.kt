@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+/**
+ * Generates a Rust module that binds native methods eagerly with `RegisterNatives`, from
+ * `JNI_OnLoad`, instead of the JVM resolving each `Java_*` symbol on its first call.
+ *
+ * The module uses the types of [sysCrate], `jni_sys` or the `jni` crate's `jni::sys`
+ * re-export.
+ */
+class RegisterNatives(private val sysCrate: String, private val onLoad: Boolean) {
+
+  /** Rust source registering every method of [bindings] with the symbol implementing it. */
+  fun generate(origin: String, bindings: Map<NativeMethod, String>): String {
+    val out = StringBuilder()
+    out.append("// Generated by rust-maven-plugin from the native methods of $origin.\n")
+    out.append("// Do not edit.\n")
+    out.append(
+        """
+        |
+        |use std::os::raw::{c_char, c_void};
+        |
+        |use $sysCrate::{jint, JNIEnv, JNINativeMethod, JavaVM, JNI_ERR, JNI_OK, JNI_VERSION_1_8};
+        |
+        |// Only the addresses are taken, the signatures do not matter.
+        |#[allow(clashing_extern_declarations)]
+        |extern "system" {
+        |""".trimMargin())
+    bindings.values.distinct().sorted().forEach { out.append("    fn $it();\n") }
+    out.append(
+        """
+        |}
+        |
+        |/// `(class, [(name, signature, function)])`, with NUL-terminated names.
+        |#[allow(clippy::type_complexity)]
+        |static NATIVES: &[(&[u8], &[(&[u8], &[u8], unsafe extern "system" fn())])] = &[
+        |""".trimMargin())
+    for ((className, methods) in bindings.entries.groupBy { it.key.className }) {
+      out.append("    (\n")
+      out.append("        ${bytes(className)},\n")
+      out.append("        &[\n")
+      for ((method, symbol) in methods) {
+        out.append("            (${bytes(method.name)}, ${bytes(method.descriptor)}, $symbol),\n")
+      }
+      out.append("        ],\n")
+      out.append("    ),\n")
+    }
+    out.append(
+        """
+        |];
+        |
+        |/// Registers every native method. Returns `JNI_OK`, or `JNI_ERR` with a pending exception.
+        |///
+        |/// # Safety
+        |///
+        |/// `env` must be the valid `JNIEnv` of the current thread.
+        |pub unsafe fn register_natives(env: *mut JNIEnv) -> jint {
+        |    for (class, methods) in NATIVES {
+        |        let class_ref = ((**env).FindClass.unwrap())(env, class.as_ptr() as *const c_char);
+        |        if class_ref.is_null() {
+        |            return JNI_ERR;
+        |        }
+        |        let table: Vec<JNINativeMethod> = methods
+        |            .iter()
+        |            .map(|(name, signature, function)| JNINativeMethod {
+        |                name: name.as_ptr() as *mut c_char,
+        |                signature: signature.as_ptr() as *mut c_char,
+        |                fnPtr: *function as *mut c_void,
+        |            })
+        |            .collect();
+        |        let register = (**env).RegisterNatives.unwrap();
+        |        let result = register(env, class_ref, table.as_ptr(), table.len() as jint);
+        |        ((**env).DeleteLocalRef.unwrap())(env, class_ref);
+        |        if result != JNI_OK {
+        |            return JNI_ERR;
+        |        }
+        |    }
+        |    JNI_OK
+        |}
+        |""".trimMargin())
+    if (onLoad) {
+      out.append(
+          """
+          |
+          |/// Called by the JVM when the library is loaded.
+          |///
+          |/// # Safety
+          |///
+          |/// Only the JVM calls this function.
+          |#[no_mangle]
+          |pub unsafe extern "system" fn JNI_OnLoad(
+          |    vm: *mut JavaVM,
+          |    _reserved: *mut c_void,
+          |) -> jint {
+          |    let mut env: *mut c_void = std::ptr::null_mut();
+          |    if ((**vm).GetEnv.unwrap())(vm, &mut env, JNI_VERSION_1_8) != JNI_OK {
+          |        return JNI_ERR;
+          |    }
+          |    if register_natives(env as *mut JNIEnv) != JNI_OK {
+          |        return JNI_ERR;
+          |    }
+          |    JNI_VERSION_1_8
+          |}
+          |""".trimMargin())
+    }
+    return out.toString()
+  }
+
+  /** A NUL-terminated Rust byte string literal of [value] in UTF-8. */
+  private fun bytes(value: String): String {
+    val out = StringBuilder("b\"")
+    for (byte in (value + "\u0000").toByteArray(Charsets.UTF_8)) {
+      val c = byte.toInt() and 0xff
+      when {
+        c == 0 -> out.append("\\0")
+        c == '"'.code || c == '\\'.code -> out.append('\\').append(c.toChar())
+        c in 0x20..0x7e -> out.append(c.toChar())
+        else -> out.append(String.format("\\x%02x", c))
+      }
+    }
+    return out.append('"').toString()
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import org.apache.maven.plugin.MojoExecutionException
+
+/**
+ * The `io.github.workoss.jni.OS` view of a Rust target triple: the `$os-$arch` directory and file
+ * names `JniLibLoader` looks up when running on that platform.
+ *
+ * musl targets get a `-musl` suffix so they can be packaged next to the glibc build of the same
+ * architecture; the loader prefers them when it detects a musl libc.
+ */
+class TargetPlatform
+private constructor(
+    val triple: String,
+    val os: String,
+    val arch: String,
+    val musl: Boolean,
+) {
+  /** Directory name, e.g. `linux-aarch_64` or `linux-x86_64-musl`. */
+  val platformDir: String
+    get() = "$os-$arch" + if (musl) "-musl" else ""
+
+  private val libPrefix: String
+    get() = if (os == "windows") "" else "lib"
+
+  private val libSuffix: String
+    get() =
+        when (os) {
+          "windows" -> ".dll"
+          "osx" -> ".dylib"
+          else -> ".so"
+        }
+
+  /** File name cargo gives the cdylib [libName] on this target. */
+  fun libFileName(libName: String): String = libPrefix + libName.replace("-", "_") + libSuffix
+
+  /** File name cargo gives the binary [binName] on this target. */
+  fun binFileName(binName: String): String = binName + if (os == "windows") ".exe" else ""
+
+  /**
+   * Path of an artifact relative to the copy directory, following
+   * `JniLibLoader.getJniLibPath(libName, withPlatformDir)`.
+   */
+  fun jniLibPath(fileName: String, withPlatformDir: Boolean): String {
+    if (withPlatformDir) {
+      return "$platformDir/$fileName"
+    }
+    if (!fileName.endsWith(libSuffix)) {
+      return "$fileName-$platformDir"
+    }
+    return fileName.substring(0, fileName.length - libSuffix.length) + "-$platformDir$libSuffix"
+  }
+
+  companion object {
+    @Throws(MojoExecutionException::class)
+    fun of(triple: String): TargetPlatform {
+      val parts = triple.split('-')
+      val arch = arch(parts[0]) ?: throw unsupported(triple, "architecture")
+      val system = parts.drop(1)
+      val os =
+          when {
+            system.contains("darwin") -> "osx"
+            system.contains("windows") -> "windows"
+            system.contains("linux") || system.contains("android") -> "linux"
+            system.contains("freebsd") -> "freebsd"
+            system.contains("netbsd") -> "netbsd"
+            system.contains("openbsd") -> "openbsd"
+            system.contains("solaris") || system.contains("illumos") -> "sunos"
+            system.contains("aix") -> "aix"
+            else -> throw unsupported(triple, "operating system")
+          }
+      val musl = os == "linux" && system.lastOrNull()?.startsWith("musl") == true
+      return TargetPlatform(triple, os, arch, musl)
+    }
+
+    /** Mirrors the architecture table of `Platform` for the names used in Rust triples. */
+    private fun arch(value: String): String? {
+      return when {
+        value == "x86_64" -> "x86_64"
+        value.matches(Regex("i[3-6]86")) -> "x86_32"
+        value == "aarch64" || value == "arm64" -> "aarch_64"
+        value.startsWith("arm") || value.startsWith("thumb") -> "arm_32"
+        value == "powerpc64le" -> "ppcle_64"
+        value == "powerpc64" -> "ppc_64"
+        value == "powerpc" -> "ppc_32"
+        value == "s390x" -> "s390_64"
+        value == "mips64el" -> "mipsel_64"
+        value == "mips64" -> "mips_64"
+        value == "mipsel" -> "mipsel_32"
+        value == "mips" -> "mips_32"
+        value == "sparc64" || value == "sparcv9" -> "sparc_64"
+        value.startsWith("riscv64") -> "riscv64"
+        value == "loongarch64" -> "loongarch_64"
+        else -> null
+      }
+    }
+
+    private fun unsupported(triple: String, what: String): MojoExecutionException {
+      return MojoExecutionException("Unsupported $what in Rust target `$triple`")
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+
+/**
+ * Test executables built by `cargo test --no-run`, recorded by the `test-compile` goal so the
+ * `test` goal can run them without invoking cargo again. The record is keyed on the crate's
+ * [Crate.fingerprint], so binaries of earlier sources or settings are not reused.
+ */
+object TestBinaries {
+  private val LIBRARY_KINDS = setOf("lib", "rlib", "dylib", "cdylib", "staticlib", "proc-macro")
+
+  /**
+   * A test executable. Without [harness], the target declares `harness = false` and the
+   * executable is its own program rather than a libtest runner.
+   */
+  class TestBinary(
+      val target: String,
+      val kind: String,
+      val executable: String,
+      val harness: Boolean = true,
+  ) {
+    /** Surefire suite name, e.g. `lib.mycrate` or `test.integration`. */
+    val suite: String
+      get() = "$kind.$target"
+
+    /** Whether this is the unit test binary of the library, which also has doc tests. */
+    val isLibrary: Boolean
+      get() = kind in LIBRARY_KINDS
+
+    fun withHarness(harness: Boolean): TestBinary = TestBinary(target, kind, executable, harness)
+  }
+
+  /** The recorded binaries and the native library directories their build scripts added. */
+  class Record(val binaries: List<TestBinary>, val nativeDirs: List<String>)
+
+  /** Where the binaries of crate [crateName] are recorded. */
+  fun recordFile(targetRootDir: Path, crateName: String): Path =
+      targetRootDir.resolve("tests").resolve("$crateName.json")
+
+  /**
+   * The test executable announced by a `compiler-artifact` message of `--message-format=json`, or
+   * `null` for any other line.
+   */
+  fun parseMessage(line: String): TestBinary? {
+    if (!line.startsWith("{")) {
+      return null
+    }
+    return try {
+      val message = JsonParser.parseString(line).asJsonObject
+      val executable = message.get("executable")
+      if (message.get("reason")?.asString != "compiler-artifact" ||
+          executable == null ||
+          executable.isJsonNull ||
+          message.getAsJsonObject("profile")?.get("test")?.asBoolean != true) {
+        return null
+      }
+      val target = message.getAsJsonObject("target")
+      TestBinary(
+          target.get("name").asString,
+          target.getAsJsonArray("kind").get(0).asString,
+          executable.asString)
+    } catch (_: RuntimeException) {
+      // Not a cargo message.
+      null
+    }
+  }
+
+  /**
+   * The library directories a `build-script-executed` message adds with `cargo:rustc-link-search`,
+   * without their kind, or an empty list for any other line.
+   */
+  fun parseNativeDirs(line: String): List<String> {
+    if (!line.startsWith("{")) {
+      return emptyList()
+    }
+    return try {
+      val message = JsonParser.parseString(line).asJsonObject
+      if (message.get("reason")?.asString != "build-script-executed") {
+        return emptyList()
+      }
+      message.getAsJsonArray("linked_paths").map { it.asString.substringAfter('=') }
+    } catch (_: RuntimeException) {
+      // Not a cargo message.
+      emptyList()
+    }
+  }
+
+  @Throws(IOException::class)
+  fun write(file: Path, fingerprint: String, record: Record) {
+    val array = JsonArray()
+    for (binary in record.binaries) {
+      val json = JsonObject()
+      json.addProperty("target", binary.target)
+      json.addProperty("kind", binary.kind)
+      json.addProperty("executable", binary.executable)
+      json.addProperty("harness", binary.harness)
+      array.add(json)
+    }
+    val nativeDirs = JsonArray()
+    record.nativeDirs.forEach { nativeDirs.add(it) }
+    val json = JsonObject()
+    json.addProperty("fingerprint", fingerprint)
+    json.add("binaries", array)
+    json.add("nativeDirs", nativeDirs)
+    Files.createDirectories(file.parent)
+    Files.write(file, GsonBuilder().setPrettyPrinting().create().toJson(json).toByteArray())
+  }
+
+  /**
+   * The record, or `null` unless it exists, was written for [fingerprint] and all executables are
+   * present.
+   */
+  @Throws(IOException::class)
+  fun read(file: Path, fingerprint: String): Record? {
+    if (!Files.isRegularFile(file)) {
+      return null
+    }
+    val json = JsonParser.parseString(String(Files.readAllBytes(file), Charsets.UTF_8))
+    if (!json.isJsonObject || json.asJsonObject.get("fingerprint")?.asString != fingerprint) {
+      return null
+    }
+    val binaries =
+        json.asJsonObject.getAsJsonArray("binaries").map {
+          val binary = it.asJsonObject
+          TestBinary(
+              binary.get("target").asString,
+              binary.get("kind").asString,
+              binary.get("executable").asString,
+              binary.get("harness")?.asBoolean ?: true)
+        }
+    val nativeDirs =
+        json.asJsonObject.getAsJsonArray("nativeDirs")?.map { it.asString } ?: emptyList()
+    return if (binaries.all { Files.isRegularFile(Paths.get(it.executable)) }) {
+      Record(binaries, nativeDirs)
+    } else {
+      null
+    }
+  }
+}
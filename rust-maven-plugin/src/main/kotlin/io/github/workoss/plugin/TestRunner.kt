@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Locale
+import javax.xml.stream.XMLOutputFactory
+import javax.xml.stream.XMLStreamException
+import org.apache.maven.plugin.MojoExecutionException
+import org.apache.maven.plugin.MojoFailureException
+import org.apache.maven.plugin.logging.Log
+
+/**
+ * Runs recorded test binaries one test per process on a pool of workers, so that slow tests do not
+ * serialize a binary and every test gets its own duration, and writes a surefire compatible report
+ * per binary.
+ */
+class TestRunner(
+    private val log: Log,
+    private val workers: Int,
+    private val environment: Map<String, String>,
+    private val workingDir: Path,
+    private val reportsDir: Path,
+    private val suitePrefix: String,
+) {
+  enum class Status {
+    PASSED,
+    FAILED,
+    SKIPPED,
+  }
+
+  class Result(
+      val binary: TestBinaries.TestBinary,
+      val name: String,
+      val status: Status,
+      val seconds: Double,
+      val output: String,
+  )
+
+  /** Run every test of [binaries] and return the number of failed tests. */
+  @Throws(MojoExecutionException::class, MojoFailureException::class)
+  fun run(binaries: List<TestBinaries.TestBinary>): Int {
+    val cases = binaries.flatMap { binary -> list(binary).map { Pair(binary, it) } }
+    log.info("Running ${cases.size} tests of ${binaries.size} binaries on $workers workers")
+    val results = Parallel.map(cases, workers) { (binary, name) -> run(binary, name) }
+    var failures = 0
+    for (binary in binaries) {
+      val suite = results.filter { it.binary === binary }
+      val failed = suite.filter { it.status == Status.FAILED }
+      failed.forEach { result ->
+        log.error("${binary.suite} ${result.name} FAILED")
+        result.output.trimEnd().lineSequence().forEach { log.error("  $it") }
+      }
+      failures += failed.size
+      log.info(
+          String.format(
+              Locale.ROOT,
+              "Tests run: %d, Failures: %d, Skipped: %d, Time elapsed: %.3f s - in %s",
+              suite.size,
+              failed.size,
+              suite.count { it.status == Status.SKIPPED },
+              suite.sumOf { it.seconds },
+              binary.suite))
+      writeReport(binary, suite)
+    }
+    return failures
+  }
+
+  /**
+   * Names of the tests in [binary], from libtest's `--list`. A binary without libtest harness is
+   * one test named after its target.
+   */
+  @Throws(MojoExecutionException::class)
+  private fun list(binary: TestBinaries.TestBinary): List<String> {
+    if (!binary.harness) {
+      return listOf(binary.target)
+    }
+    val output =
+        try {
+          ProcessPump.capture(
+              listOf(binary.executable, "--list", "--format", "terse"), workingDir, environment)
+        } catch (e: IOException) {
+          throw MojoExecutionException("Failed to list the tests of ${binary.executable}", e)
+        } catch (e: InterruptedException) {
+          Thread.currentThread().interrupt()
+          throw MojoExecutionException("Interrupted while listing tests", e)
+        }
+    return output.filter { it.endsWith(": test") }.map { it.removeSuffix(": test") }
+  }
+
+  private fun run(binary: TestBinaries.TestBinary, name: String): Result {
+    val processBuilder =
+        if (binary.harness) {
+          ProcessBuilder(binary.executable, "--exact", name, "--test-threads", "1")
+        } else {
+          ProcessBuilder(binary.executable)
+        }
+    processBuilder.redirectErrorStream(true)
+    processBuilder.environment().putAll(environment)
+    processBuilder.directory(workingDir.toFile())
+    val start = System.nanoTime()
+    return try {
+      val process = processBuilder.start()
+      val output = String(process.inputStream.readBytes(), Charsets.UTF_8)
+      val exitCode = process.waitFor()
+      val seconds = (System.nanoTime() - start) / 1e9
+      val status =
+          when {
+            exitCode != 0 -> Status.FAILED
+            binary.harness && output.contains("test $name ... ignored") -> Status.SKIPPED
+            else -> Status.PASSED
+          }
+      Result(binary, name, status, seconds, output)
+    } catch (e: IOException) {
+      Result(binary, name, Status.FAILED, (System.nanoTime() - start) / 1e9, e.toString())
+    } catch (e: InterruptedException) {
+      Thread.currentThread().interrupt()
+      Result(binary, name, Status.FAILED, (System.nanoTime() - start) / 1e9, e.toString())
+    }
+  }
+
+  @Throws(MojoExecutionException::class)
+  private fun writeReport(binary: TestBinaries.TestBinary, results: List<Result>) {
+    val suite = "$suitePrefix.${binary.suite}"
+    val file = reportsDir.resolve("TEST-$suite.xml")
+    try {
+      Files.createDirectories(reportsDir)
+      Files.newOutputStream(file).use { stream ->
+        val xml = XMLOutputFactory.newInstance().createXMLStreamWriter(stream, "UTF-8")
+        xml.writeStartDocument("UTF-8", "1.0")
+        xml.writeStartElement("testsuite")
+        xml.writeAttribute("name", suite)
+        xml.writeAttribute("tests", results.size.toString())
+        xml.writeAttribute("failures", results.count { it.status == Status.FAILED }.toString())
+        xml.writeAttribute("errors", "0")
+        xml.writeAttribute("skipped", results.count { it.status == Status.SKIPPED }.toString())
+        xml.writeAttribute("time", seconds(results.sumOf { it.seconds }))
+        for (result in results.sortedBy { it.name }) {
+          xml.writeStartElement("testcase")
+          xml.writeAttribute("name", result.name)
+          xml.writeAttribute("classname", suite)
+          xml.writeAttribute("time", seconds(result.seconds))
+          when (result.status) {
+            Status.FAILED -> {
+              xml.writeStartElement("failure")
+              xml.writeAttribute("message", "${result.name} failed")
+              xml.writeCharacters(result.output)
+              xml.writeEndElement()
+            }
+            Status.SKIPPED -> xml.writeEmptyElement("skipped")
+            Status.PASSED -> {}
+          }
+          xml.writeEndElement()
+        }
+        xml.writeEndElement()
+        xml.writeEndDocument()
+        xml.close()
+      }
+    } catch (e: IOException) {
+      throw MojoExecutionException("Failed to write $file: ${e.message}", e)
+    } catch (e: XMLStreamException) {
+      throw MojoExecutionException("Failed to write $file: ${e.message}", e)
+    }
+  }
+
+  private fun seconds(value: Double): String = String.format(Locale.ROOT, "%.3f", value)
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+import java.util.stream.Collectors
+import org.apache.maven.plugin.MojoExecutionException
+
+/** Versions and layout of the Rust toolchain that builds a crate. */
+class Toolchain(
+    val cargoVersion: String,
+    val rustcVersion: String,
+    val host: String,
+    val sysroot: Path,
+    val installedTargets: Set<String>,
+) {
+  /** Stable hash of everything about the toolchain that influences compiled output. */
+  val fingerprint: String by lazy { sha256("$cargoVersion\n$rustcVersion\n$host") }
+
+  fun hasTarget(triple: String): Boolean = triple == host || installedTargets.contains(triple)
+
+  /** Fails fast when the standard library for [triple] is not installed. */
+  @Throws(MojoExecutionException::class)
+  fun requireTarget(triple: String) {
+    // Custom target specs are resolved by rustc itself.
+    if (triple.endsWith(".json") || hasTarget(triple)) {
+      return
+    }
+    throw MojoExecutionException(
+        "Rust target `$triple` is not installed in $sysroot (installed: " +
+            installedTargets.sorted().joinToString(", ") +
+            ").\n\nRun `rustup target add $triple`")
+  }
+
+  private fun toProperties(): Properties {
+    val props = Properties()
+    props.setProperty("cargo.version", cargoVersion)
+    props.setProperty("rustc.version", rustcVersion)
+    props.setProperty("host", host)
+    props.setProperty("sysroot", sysroot.toString())
+    props.setProperty("rustlib.modified", rustlibModified(sysroot).toString())
+    props.setProperty("targets", installedTargets.sorted().joinToString(","))
+    return props
+  }
+
+  companion object {
+    /** Resolved toolchains, shared by every execution of the reactor. */
+    private val cache = ConcurrentHashMap<String, Toolchain>()
+
+    /**
+     * Resolve the toolchain cargo would use for [crateRoot], spawning `rustc` only the first time a
+     * given toolchain is seen during the build.
+     *
+     * If [cacheDir] is set, the result is also persisted there and reused by later builds until the
+     * toolchain's sysroot changes.
+     */
+    @Throws(MojoExecutionException::class)
+    fun resolve(
+        cargoPath: String,
+        crateRoot: Path,
+        environment: Map<String, String>,
+        cacheDir: Path?,
+    ): Toolchain {
+      val rustc = rustcPath(cargoPath, environment)
+      val key = cacheKey(cargoPath, rustc, crateRoot, environment)
+      return try {
+        cache.computeIfAbsent(key) {
+          val cacheFile = cacheDir?.resolve("toolchain-${sha256(key).substring(0, 16)}.properties")
+          load(cacheFile)
+              ?: probe(cargoPath, rustc, crateRoot, environment).also { store(cacheFile, it) }
+        }
+      } catch (e: ToolchainException) {
+        throw e.cause as MojoExecutionException
+      }
+    }
+
+    private fun probe(
+        cargoPath: String,
+        rustc: String,
+        crateRoot: Path,
+        environment: Map<String, String>,
+    ): Toolchain {
+      try {
+        val cargoVersion = CargoInstalledChecker.INSTANCE.version(cargoPath)
+        val verbose = ProcessPump.capture(listOf(rustc, "-vV"), crateRoot, environment)
+        val host =
+            verbose.firstOrNull { it.startsWith("host: ") }?.substring("host: ".length)
+                ?: throw MojoExecutionException("Unexpected `$rustc -vV` output: $verbose")
+        val sysroot =
+            Paths.get(
+                ProcessPump.capture(listOf(rustc, "--print", "sysroot"), crateRoot, environment)
+                    .first()
+                    .trim())
+        return Toolchain(cargoVersion, verbose.joinToString("\n"), host, sysroot, targets(sysroot))
+      } catch (e: MojoExecutionException) {
+        throw ToolchainException(e)
+      } catch (e: IOException) {
+        throw ToolchainException(
+            MojoExecutionException("Failed to query the Rust toolchain: " + e.message, e))
+      } catch (e: InterruptedException) {
+        Thread.currentThread().interrupt()
+        throw ToolchainException(
+            MojoExecutionException("Interrupted while querying the Rust toolchain", e))
+      }
+    }
+
+    /** Targets with an installed standard library, read from the sysroot without rustup. */
+    private fun targets(sysroot: Path): Set<String> {
+      val rustlib = sysroot.resolve("lib").resolve("rustlib")
+      if (!Files.isDirectory(rustlib)) {
+        return emptySet()
+      }
+      Files.list(rustlib).use { dirs ->
+        return dirs
+            .filter { Files.isDirectory(it.resolve("lib")) }
+            .map { it.fileName.toString() }
+            .collect(Collectors.toCollection { sortedSetOf<String>() })
+      }
+    }
+
+    private fun load(cacheFile: Path?): Toolchain? {
+      if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+        return null
+      }
+      return try {
+        val props = Properties()
+        Files.newInputStream(cacheFile).use { props.load(it) }
+        val sysroot = Paths.get(props.getProperty("sysroot"))
+        if (props.getProperty("rustlib.modified") != rustlibModified(sysroot).toString()) {
+          return null
+        }
+        Toolchain(
+            props.getProperty("cargo.version"),
+            props.getProperty("rustc.version"),
+            props.getProperty("host"),
+            sysroot,
+            props.getProperty("targets").split(',').filter { it.isNotEmpty() }.toSortedSet())
+      } catch (_: Exception) {
+        // A corrupt or partial cache file is simply recomputed.
+        null
+      }
+    }
+
+    private fun store(cacheFile: Path?, toolchain: Toolchain) {
+      if (cacheFile == null) {
+        return
+      }
+      try {
+        Files.createDirectories(cacheFile.parent)
+        val tmp = Files.createTempFile(cacheFile.parent, "toolchain", ".tmp")
+        Files.newOutputStream(tmp).use { toolchain.toProperties().store(it, "rust-maven-plugin") }
+        Files.move(
+            tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      } catch (_: IOException) {
+        // The on-disk cache is an optimisation only.
+      }
+    }
+
+    /**
+     * `rustup target add` and `rustup component add` create a directory under `lib/rustlib` and
+     * rewrite its `components` file, which both update the directory's modification time.
+     */
+    private fun rustlibModified(sysroot: Path): Long {
+      return try {
+        Files.getLastModifiedTime(sysroot.resolve("lib").resolve("rustlib")).toMillis()
+      } catch (_: IOException) {
+        -1
+      }
+    }
+
+    /** The `rustc` cargo is going to invoke: `$RUSTC`, else the one next to `cargo`. */
+    private fun rustcPath(cargoPath: String, environment: Map<String, String>): String {
+      val rustc = environment["RUSTC"] ?: System.getenv("RUSTC")
+      if (!rustc.isNullOrEmpty()) {
+        return rustc
+      }
+      val cargoDir = Paths.get(cargoPath).parent ?: return "rustc"
+      val name = if (cargoPath.endsWith(".exe")) "rustc.exe" else "rustc"
+      val sibling = cargoDir.resolve(name)
+      return if (Files.isExecutable(sibling)) sibling.toString() else "rustc"
+    }
+
+    /**
+     * Identifies the toolchain selection for a crate: the binaries, the rustup overrides in the
+     * environment and any `rust-toolchain` file that applies to the crate directory.
+     */
+    private fun cacheKey(
+        cargoPath: String,
+        rustc: String,
+        crateRoot: Path,
+        environment: Map<String, String>,
+    ): String {
+      val key = StringBuilder()
+      key.append(cargoPath).append('\n').append(rustc).append('\n')
+      for (name in listOf("RUSTUP_TOOLCHAIN", "RUSTUP_HOME", "CARGO_HOME", "PATH")) {
+        key.append(name).append('=').append(environment[name] ?: System.getenv(name)).append('\n')
+      }
+      var dir: Path? = crateRoot.toAbsolutePath()
+      while (dir != null) {
+        for (name in listOf("rust-toolchain", "rust-toolchain.toml")) {
+          val file = dir.resolve(name)
+          if (Files.isRegularFile(file)) {
+            key.append(file).append('=')
+            key.append(String(Files.readAllBytes(file), StandardCharsets.UTF_8)).append('\n')
+          }
+        }
+        dir = dir.parent
+      }
+      return key.toString()
+    }
+
+    fun sha256(value: String): String {
+      val digest =
+          MessageDigest.getInstance("SHA-256").digest(value.toByteArray(StandardCharsets.UTF_8))
+      return digest.joinToString("") { String.format("%02x", it) }
+    }
+  }
+
+  /** Carries a [MojoExecutionException] out of [ConcurrentHashMap.computeIfAbsent]. */
+  private class ToolchainException(cause: MojoExecutionException) : RuntimeException(cause)
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import org.apache.maven.plugin.MojoExecutionException
+
+/**
+ * A CPU-tuned build of the crate, configured as a `<variant>` of `build`'s `variants`.
+ *
+ * Each variant is copied into a `copyTo` subdirectory named after it, which is the `prefix` to pass
+ * to `JniLibLoader.loadLibrary`.
+ */
+class Variant {
+  /** Directory name of the variant, e.g. `x86-64-v3`. */
+  var name: String = ""
+
+  /** Passed to rustc as `-Ctarget-cpu`, e.g. `x86-64-v3`. If unset, the target's default CPU. */
+  var targetCpu: String? = null
+
+  /** Passed to rustc as `-Ctarget-feature`, e.g. `+avx2,+fma`. */
+  var targetFeatures: String? = null
+
+  /** Adjust [params] to build this variant into its own target and copy directories. */
+  @Throws(MojoExecutionException::class)
+  fun apply(params: Crate.Params) {
+    if (!name.matches(Regex("[A-Za-z0-9._-]+"))) {
+      throw MojoExecutionException("Invalid variant name `$name`")
+    }
+    params.variant = name
+    params.targetSubdir = "variants/$name"
+    targetCpu?.let { params.targetCpu = it }
+    targetFeatures?.let { params.rustFlags = params.rustFlags + "-Ctarget-feature=$it" }
+    params.copyToDir = params.copyToDir?.resolve(name)
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024-2024 workoss (https://www.workoss.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.workoss.plugin
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class FfmBindingsTest {
+
+  private fun parse(header: String, warnings: MutableList<String> = ArrayList()) =
+      FfmBindings("", "Sample", "sample", false).parse(header, warnings::add)
+
+  @Test
+  fun unnamedParameterEndingInTypeWord() {
+    val functions = parse("void f(unsigned int);\nvoid g(unsigned int count, long long);")
+
+    assertEquals(listOf("arg0"), functions[0].params.map { it.first })
+    assertEquals("JAVA_INT", functions[0].params[0].second.layout)
+    assertEquals(listOf("count", "arg1"), functions[1].params.map { it.first })
+    assertEquals("JAVA_LONG", functions[1].params[1].second.layout)
+  }
+
+  @Test
+  fun preprocessorBranchesAreFlattened() {
+    val warnings = ArrayList<String>()
+    val functions =
+        parse(
+            """
+            |#if defined(_WIN32)
+            |int32_t open_file(const uint16_t *path);
+            |#else
+            |int32_t open_file(const char *path);
+            |#endif
+            |#define LIMIT \
+            |  16
+            |void close_file(int32_t fd);
+            |"""
+                .trimMargin(),
+            warnings)
+
+    assertEquals(listOf("open_file", "close_file"), functions.map { it.name })
+    assertEquals("ADDRESS", functions[0].params[0].second.layout)
+    assertEquals(emptyList(), warnings)
+  }
+
+  @Test
+  fun duplicateJavaNameIsSkipped() {
+    val warnings = ArrayList<String>()
+    val functions = parse("void foo_bar(void);\nvoid fooBar(void);", warnings)
+
+    assertEquals(listOf("foo_bar"), functions.map { it.name })
+    assertEquals(1, warnings.size)
+    assertTrue(warnings[0].startsWith("Skipping `fooBar`"), warnings[0])
+  }
+
+  @Test
+  fun longAndSizeTakeCanonicalLayouts() {
+    val functions = parse("unsigned long hash(const uint8_t *data, size_t len);")
+
+    assertEquals("C_LONG", functions[0].returnType!!.layout)
+    assertEquals("C_SIZE_T", functions[0].params[1].second.layout)
+
+    val source =
+        FfmBindings("", "Sample", "sample", false)
+            .generate("unsigned long hash(const uint8_t *data, size_t len);", "sample.h") {}
+    assertTrue(source.contains("LINKER.canonicalLayouts().get(\"long\")"), source)
+    assertTrue(
+        source.contains("MethodType.methodType(long.class, MemorySegment.class, long.class)"),
+        source)
+  }
+}